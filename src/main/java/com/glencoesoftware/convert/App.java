@@ -18,10 +18,6 @@ import javafx.stage.Stage;
 
 import java.io.IOException;
 import java.util.Objects;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * JavaFX App
@@ -34,7 +30,8 @@ public class App extends Application {
 
     public static String version;
 
-    public static Image appIcon = new Image(Objects.requireNonNull(App.class.getResourceAsStream("main-icon.png")));
+    // Loaded once the toolkit is running, so that headless runs can read the version without starting JavaFX
+    public static Image appIcon;
 
     static {
         version = App.class.getPackage().getImplementationVersion();
@@ -43,6 +40,7 @@ public class App extends Application {
 
     @Override
     public void start(Stage stage) throws IOException {
+        appIcon = new Image(Objects.requireNonNull(App.class.getResourceAsStream("main-icon.png")));
         FXMLLoader fxmlLoader = new FXMLLoader(App.class.getResource("primary.fxml"));
         Parent primary = fxmlLoader.load();
         scene = new Scene(primary, 1024, 600);
@@ -87,10 +85,12 @@ public class App extends Application {
 
     @Override
     public void stop() {
+        controller.cancelScans();
         if (controller.jobsRunning()) {
             controller.runCancel();
         }
-        executor.shutdownNow();
+        scheduler.shutdownNow();
+        if (controller.journal != null) controller.journal.close();
     }
 
     public static Scene getScene() {
@@ -101,13 +101,7 @@ public class App extends Application {
         launch();
     }
 
-    public static final ExecutorService executor = Executors.newFixedThreadPool(1, r -> {
-        Thread t = new Thread(r, "Converter");
-        t.setDaemon(true);
-        return t ;
-    });
+    public static final JobScheduler scheduler = new JobScheduler();
 
-    private static final BlockingQueue<Runnable> queue = ((ThreadPoolExecutor) executor).getQueue();
-
-    public static int queueSize() { return queue.size(); }
+    public static int queueSize() { return scheduler.queueSize(); }
 }
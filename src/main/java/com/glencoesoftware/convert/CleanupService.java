@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+// Deletes intermediates in the background so that the next job doesn't wait for them.
+// The target is first renamed to a hidden name in the same directory, which is instant and frees its path for a
+// retry of the same job. The renamed tree is then removed with a fork-join task per directory, so that unlinking
+// many small chunk files on a network drive overlaps rather than queues up. Leftovers from a session which exited
+// before its deletions finished are picked up the next time something in the same directory is cleaned up.
+public class CleanupService {
+
+    private static final ch.qos.logback.classic.Logger LOGGER =
+            (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(CleanupService.class);
+
+    private static final String deletingSuffix = ".ngff-deleting";
+    // Deletion is bound by filesystem latency rather than CPU
+    private static final int deleteThreads = 8;
+
+    private static final ForkJoinPool deletePool =
+            new ForkJoinPool(deleteThreads, JobLogRouter::newForkJoinThread, null, false);
+    // Runs one deletion at a time, each of which fans out over deletePool
+    private static final ExecutorService queue = Executors.newSingleThreadExecutor(
+            r -> JobLogRouter.newThread(r, "Intermediate-Cleanup"));
+
+    // Paths already waiting for deletion, so leftovers aren't queued twice
+    private static final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    private CleanupService() {}
+
+    // Remove the supplied file or directory. Returns once it has been moved out of the way, or deleted if it
+    // couldn't be moved. The scheduler is told once the space has been reclaimed. The outcome is logged to the
+    // calling job's log.
+    public static void delete(File target, JobScheduler scheduler) throws IOException {
+        delete(target, scheduler, null);
+    }
+
+    // As above, running onRemoved (if supplied) once the target is gone or removing it has failed
+    public static void delete(File target, JobScheduler scheduler, Runnable onRemoved) throws IOException {
+        List<Appender<ILoggingEvent>> jobLog = JobLogRouter.current();
+        File parent = target.getAbsoluteFile().getParentFile();
+        File renamed = new File(parent, "." + target.getName() + "." + UUID.randomUUID() + deletingSuffix);
+        try {
+            Files.move(target.toPath(), renamed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.debug("Unable to rename %s for background deletion, deleting in place - %s".formatted(
+                    target.getName(), e));
+            try {
+                removeTree(target);
+            } finally {
+                if (onRemoved != null) onRemoved.run();
+            }
+            scheduler.spaceFreed();
+            return;
+        }
+        List<File> toDelete = new ArrayList<>();
+        toDelete.add(renamed);
+        File[] leftovers = parent.listFiles(
+                (dir, name) -> name.endsWith(deletingSuffix) && !name.equals(renamed.getName()));
+        if (leftovers != null) toDelete.addAll(List.of(leftovers));
+        for (File file : toDelete) {
+            if (!queued.add(file.getAbsolutePath())) continue;
+            queue.execute(() -> {
+                JobLogRouter.runAs(jobLog, () -> {
+                    try {
+                        removeTree(file);
+                    } catch (IOException e) {
+                        LOGGER.warn("Failed to remove %s - %s".formatted(file.getAbsolutePath(), e));
+                    }
+                });
+                if (onRemoved != null && file == renamed) onRemoved.run();
+                queued.remove(file.getAbsolutePath());
+                scheduler.spaceFreed();
+            });
+        }
+    }
+
+    private static void removeTree(File target) throws IOException {
+        long start = System.nanoTime();
+        DeleteTask task = new DeleteTask(target);
+        deletePool.invoke(task);
+        if (target.exists()) {
+            // Anything the parallel pass couldn't remove, with a proper error if it still fails
+            if (target.isDirectory()) FileUtils.deleteDirectory(target);
+            else Files.delete(target.toPath());
+        }
+        LOGGER.info("Removed %s: %d files, %s reclaimed in %.1fs".formatted(target.getName(), task.files.sum(),
+                FileUtils.byteCountToDisplaySize(task.bytes.sum()), (System.nanoTime() - start) / 1e9));
+    }
+
+    // Deletes a directory's files, forks a task per subdirectory, then deletes the directory once they're done.
+    // Failures are left for the sequential pass in removeTree to report.
+    private static class DeleteTask extends RecursiveAction {
+        private final File target;
+        private final LongAdder files;
+        private final LongAdder bytes;
+
+        DeleteTask(File target) {
+            this(target, new LongAdder(), new LongAdder());
+        }
+
+        private DeleteTask(File target, LongAdder files, LongAdder bytes) {
+            this.target = target;
+            this.files = files;
+            this.bytes = bytes;
+        }
+
+        @Override
+        protected void compute() {
+            File[] contents = target.listFiles();
+            if (contents == null) {
+                deleteFile(target);
+                return;
+            }
+            List<DeleteTask> subdirectories = new ArrayList<>();
+            for (File file : contents) {
+                if (file.isDirectory() && !Files.isSymbolicLink(file.toPath()))
+                    subdirectories.add(new DeleteTask(file, files, bytes));
+                else deleteFile(file);
+            }
+            invokeAll(subdirectories);
+            if (!target.delete()) LOGGER.debug("Unable to remove directory " + target);
+        }
+
+        private void deleteFile(File file) {
+            long size = file.length();
+            if (file.delete()) {
+                files.increment();
+                bytes.add(size);
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.glencoesoftware.convert.tasks.BaseTask;
+import com.glencoesoftware.convert.tasks.CreateNGFF;
+import com.glencoesoftware.convert.tasks.CreateTiff;
+import com.glencoesoftware.convert.tasks.Output;
+import com.glencoesoftware.convert.workflows.BaseWorkflow;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+// Remembers which outputs were produced from which inputs and settings, so that re-running a folder only converts
+// files which are new or have changed. Entries are keyed by final output path. An entry only matches if every file
+// of the input dataset (path, size, modification time and optionally a hash of its first and last MiB), the
+// workflow and the settings which affect the output are all unchanged, and the output itself hasn't been modified
+// since it was written. Directory inputs such as Zarr count every file inside them.
+public class ConversionIndex {
+
+    private static final ch.qos.logback.classic.Logger LOGGER =
+            (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(ConversionIndex.class);
+
+    // Settings which don't change what gets written
+    private static final Set<String> ignoredSettings = Set.of(
+            CreateNGFF.prefKeys.LOG_LEVEL.name(), CreateNGFF.prefKeys.MAX_WORKERS.name(),
+            CreateNGFF.prefKeys.RESUME.name(), CreateNGFF.prefKeys.MAX_CACHED_TILES.name(),
+            CreateNGFF.prefKeys.AUTO_RESOURCES.name(), CreateTiff.prefKeys.LOG_LEVEL.name(),
+            CreateTiff.prefKeys.MAX_WORKERS.name(), CreateTiff.prefKeys.AUTO_RESOURCES.name());
+    private static final int hashSampleBytes = 1024 * 1024;
+
+    private record Entry(String fingerprint, long outputModified) {}
+
+    private static ConversionIndex instance = null;
+
+    private final File indexFile;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private ConversionIndex(File indexFile) {
+        this.indexFile = indexFile;
+        if (!indexFile.exists()) return;
+        try {
+            JsonNode root = mapper.readTree(indexFile);
+            Iterator<Map.Entry<String, JsonNode>> fields = root.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                entries.put(field.getKey(), new Entry(field.getValue().path("fingerprint").asText(),
+                        field.getValue().path("outputModified").asLong()));
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read conversion index, previous conversions won't be skipped - " + e);
+        }
+    }
+
+    public static synchronized ConversionIndex getDefault() {
+        if (instance == null) instance = new ConversionIndex(
+                new File(new File(System.getProperty("user.home"), ".ngff-converter"), "conversion-index.json"));
+        return instance;
+    }
+
+    public static boolean isEnabled() {
+        return PrimaryController.userPreferences.getBoolean(PrimaryController.prefName.SKIP_CONVERTED.name(), true);
+    }
+
+    // Whether the job's final output was already produced from the same input and settings
+    public synchronized boolean isUpToDate(BaseWorkflow job, String fingerprint) {
+        File output = job.finalOutput;
+        if (output == null || !output.exists()) return false;
+        Entry entry = entries.get(output.getAbsolutePath());
+        return entry != null && entry.outputModified() == output.lastModified()
+                && entry.fingerprint().equals(fingerprint);
+    }
+
+    public synchronized void record(BaseWorkflow job, String fingerprint) {
+        File output = job.finalOutput;
+        if (output == null || !output.exists()) return;
+        entries.put(output.getAbsolutePath(), new Entry(fingerprint, output.lastModified()));
+        save();
+    }
+
+    private void save() {
+        ObjectNode root = mapper.createObjectNode();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            ObjectNode node = root.putObject(entry.getKey());
+            node.put("fingerprint", entry.getValue().fingerprint());
+            node.put("outputModified", entry.getValue().outputModified());
+        }
+        File temp = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        try {
+            Files.createDirectories(indexFile.getParentFile().toPath());
+            mapper.writeValue(temp, root);
+            Files.move(temp.toPath(), indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to save conversion index - " + e);
+        }
+    }
+
+    // Describe the job's input and the settings which determine its output, as a digest. Null if the input
+    // couldn't be read.
+    public static String getFingerprint(BaseWorkflow job) {
+        ObjectNode settings = (ObjectNode) job.getSettingsNode();
+        settings.remove("Version");
+        for (BaseTask task : job.tasks) {
+            // Output only decides where the result goes, which is already the index key
+            if (task instanceof Output) {
+                settings.remove(task.getName());
+                continue;
+            }
+            JsonNode taskSettings = settings.get(task.getName());
+            if (taskSettings instanceof ObjectNode taskNode) taskNode.remove(ignoredSettings);
+        }
+        boolean hashInput = PrimaryController.userPreferences.getBoolean(
+                PrimaryController.prefName.SKIP_CONVERTED_HASH.name(), false);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            List<File> members = getMemberFiles(job);
+            StringBuilder description = new StringBuilder();
+            description.append(job.getShortName()).append('|').append(settings);
+            for (File member : members) {
+                description.append('|').append(member.getAbsolutePath())
+                        .append('|').append(member.length())
+                        .append('|').append(member.lastModified());
+            }
+            digest.update(description.toString().getBytes(StandardCharsets.UTF_8));
+            if (hashInput) {
+                for (File member : members) hashSamples(member, digest);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException | IOException | UncheckedIOException e) {
+            LOGGER.warn("Unable to fingerprint %s - %s".formatted(job.firstInput.getName(), e));
+            return null;
+        }
+    }
+
+    // Every file of the job's dataset in a stable order, with directories expanded to the files inside them
+    private static List<File> getMemberFiles(BaseWorkflow job) throws IOException {
+        List<File> members = new ArrayList<>();
+        for (String member : new TreeSet<>(job.getDatasetFiles())) {
+            Path path = Paths.get(member);
+            if (!Files.isDirectory(path)) {
+                members.add(path.toFile());
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(path)) {
+                files.filter(Files::isRegularFile).sorted().forEach(file -> members.add(file.toFile()));
+            }
+        }
+        return members;
+    }
+
+    // Hash the start and end of the file. Catches files rewritten in place with the same size and timestamp.
+    private static void hashSamples(File input, MessageDigest digest) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(input, "r")) {
+            byte[] buffer = new byte[(int) Math.min(hashSampleBytes, file.length())];
+            file.readFully(buffer);
+            digest.update(buffer);
+            if (file.length() > hashSampleBytes) {
+                file.seek(Math.max(hashSampleBytes, file.length() - hashSampleBytes));
+                int tailLength = (int) (file.length() - file.getFilePointer());
+                byte[] tail = new byte[tailLength];
+                file.readFully(tail);
+                digest.update(tail);
+            }
+        }
+    }
+}
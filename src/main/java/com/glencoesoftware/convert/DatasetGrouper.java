@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert;
+
+import loci.formats.FormatException;
+import loci.formats.ImageReader;
+import loci.formats.in.DefaultMetadataOptions;
+import loci.formats.in.MetadataLevel;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// Collapses the files making up a multi-file dataset (e.g. .mrxs with its data folder, .vsi with .ets files,
+// OME-TIFF companion sets) into a single input, so that each dataset is only converted once.
+// Files arrive in batches from the input scanner. When a file turns out to belong to a dataset whose main file only
+// shows up in a later batch, it is reported as removed so the caller can drop the job it already created.
+// Each grouper lives for one scan; the datasets of jobs already in the list are passed to addQueued first so that
+// a dataset dropped over several scans is still collapsed.
+public class DatasetGrouper {
+
+    private static final ch.qos.logback.classic.Logger LOGGER =
+            (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(DatasetGrouper.class);
+
+    public record Update(List<File> added, List<File> removed) {}
+
+    private record CachedDataset(long lastModified, Set<String> usedFiles) {}
+
+    // Used files for each path inspected during this scan, so files visited twice are only opened once
+    private final Map<String, CachedDataset> datasetCache = new ConcurrentHashMap<>();
+    private final ThreadLocal<ImageReader> readers = ThreadLocal.withInitial(DatasetGrouper::createReader);
+
+    private final Function<File, Set<String>> datasetReader;
+
+    public DatasetGrouper() {
+        datasetReader = file -> readUsedFiles(file, readers.get());
+    }
+
+    // Tests supply dataset membership directly rather than reading real datasets
+    DatasetGrouper(Function<File, Set<String>> datasetReader) {
+        this.datasetReader = datasetReader;
+    }
+
+    // Dataset member path -> path of the file which was kept for that dataset
+    private final Map<String, String> claimedBy = new HashMap<>();
+    // Kept path -> number of files in its dataset
+    private final Map<String, Integer> accepted = new HashMap<>();
+
+    // Register inputs which already have a job, so new files can be grouped with them. Takes the dataset files
+    // each job has cached, so that queued inputs aren't opened again on every scan.
+    public synchronized void addQueued(Map<File, Set<String>> queued) {
+        for (Map.Entry<File, Set<String>> entry : queued.entrySet())
+            accepted.put(entry.getKey().getAbsolutePath(), entry.getValue().size());
+        for (Map.Entry<File, Set<String>> entry : queued.entrySet()) {
+            String path = entry.getKey().getAbsolutePath();
+            Set<String> used = entry.getValue();
+            for (String member : used) if (!member.equals(path)) claim(member, path, used.size());
+        }
+    }
+
+    // Group a batch of newly discovered files against everything seen so far in this scan
+    public synchronized Update add(List<File> batch) {
+        Map<File, Set<String>> datasets = new HashMap<>();
+        batch.parallelStream().forEach(file -> {
+            Set<String> used = getUsedFiles(file);
+            synchronized (datasets) {
+                datasets.put(file, used);
+            }
+        });
+        // Consider the largest datasets first, so that their main file claims the members before they're visited
+        List<File> ordered = new ArrayList<>(batch);
+        ordered.sort(Comparator.comparingInt((File file) -> datasets.get(file).size()).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+
+        List<File> added = new ArrayList<>();
+        List<File> removed = new ArrayList<>();
+        for (File file : ordered) {
+            String path = file.getAbsolutePath();
+            // Already has a job of its own
+            if (accepted.containsKey(path)) continue;
+            Set<String> used = datasets.get(file);
+            // A queued job may only hold part of this dataset, in which case this file replaces it
+            String owner = claimedBy.get(path);
+            if (owner != null && accepted.getOrDefault(owner, 0) >= used.size()) {
+                LOGGER.debug("Skipping %s, it is part of %s".formatted(file.getName(), owner));
+                continue;
+            }
+            accepted.put(path, used.size());
+            for (String member : used) {
+                if (member.equals(path)) continue;
+                claim(member, path, used.size());
+                Integer memberSize = accepted.get(member);
+                if (memberSize != null && memberSize < used.size()) {
+                    // Kept in an earlier batch before we knew it belonged to this dataset
+                    LOGGER.debug("Replacing %s with %s".formatted(member, path));
+                    accepted.remove(member);
+                    File memberFile = new File(member);
+                    if (!added.remove(memberFile)) removed.add(memberFile);
+                }
+            }
+            added.add(file);
+        }
+        added.sort(null);
+        return new Update(added, removed);
+    }
+
+    // Members go to the largest dataset which contains them
+    private void claim(String member, String path, int size) {
+        String owner = claimedBy.get(member);
+        if (owner == null || accepted.getOrDefault(owner, 0) < size) claimedBy.put(member, path);
+    }
+
+    // Files making up the dataset of a single input, for callers outside a scan. Not cached.
+    public static Set<String> getDatasetFiles(File file) {
+        if (file.isDirectory()) return Set.of(file.getAbsolutePath());
+        return readUsedFiles(file, createReader());
+    }
+
+    // Absolute paths of every file belonging to the same dataset as the supplied file, including itself
+    private Set<String> getUsedFiles(File file) {
+        String path = file.getAbsolutePath();
+        // Zarr inputs are directories and always a dataset of their own
+        if (file.isDirectory()) return Set.of(path);
+        long lastModified = file.lastModified();
+        CachedDataset cached = datasetCache.get(path);
+        if (cached != null && cached.lastModified() == lastModified) return cached.usedFiles();
+        Set<String> used = datasetReader.apply(file);
+        datasetCache.put(path, new CachedDataset(lastModified, used));
+        return used;
+    }
+
+    private static ImageReader createReader() {
+        ImageReader reader = new ImageReader();
+        reader.setMetadataOptions(new DefaultMetadataOptions(MetadataLevel.MINIMUM));
+        return reader;
+    }
+
+    private static Set<String> readUsedFiles(File file, ImageReader reader) {
+        String path = file.getAbsolutePath();
+        Set<String> used = Set.of(path);
+        try {
+            // Most formats can answer this from the file name or header alone, so only open multi-file datasets
+            if (!reader.isSingleFile(path)) {
+                reader.setId(path);
+                Set<String> members = new HashSet<>();
+                members.add(path);
+                for (String member : reader.getUsedFiles()) members.add(new File(member).getAbsolutePath());
+                used = Set.copyOf(members);
+            }
+        } catch (FormatException | IOException | RuntimeException e) {
+            LOGGER.debug("Unable to read dataset files for %s - %s".formatted(file.getName(), e));
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to close reader - " + e);
+            }
+        }
+        return used;
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert;
+
+import com.glencoesoftware.convert.workflows.BaseWorkflow;
+import com.glencoesoftware.convert.workflows.ConvertToNGFF;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+// Run conversions from the command line without starting JavaFX.
+// Workflows are created without a controller, which makes them skip all GUI handling.
+@Command(name = "NGFF-Converter --headless", mixinStandardHelpOptions = true,
+        description = "Convert files without starting the graphical interface. " +
+                "Saved task defaults are used unless overridden by a settings file.")
+public class HeadlessRunner implements Callable<Integer> {
+
+    public static final String flag = "--headless";
+
+    private static final ch.qos.logback.classic.Logger LOGGER =
+            (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(HeadlessRunner.class);
+
+    @Parameters(arity = "1..*", paramLabel = "input",
+            description = "Files or directories to convert. Directories are searched for supported files.")
+    private List<File> inputs;
+
+    @Option(names = {"-w", "--workflow"}, defaultValue = ConvertToNGFF.shortName,
+            description = "Output format to produce, either OME-NGFF or OME-TIFF (default: ${DEFAULT-VALUE})")
+    private String workflowName;
+
+    @Option(names = {"-s", "--settings"},
+            description = "JSON settings file exported from the job settings dialog")
+    private File settingsFile;
+
+    @Option(names = {"-j", "--jobs"},
+            description = "Maximum number of jobs to run at once (default: number of CPUs)")
+    private Integer maxJobs;
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new HeadlessRunner()).execute(args));
+    }
+
+    @Override
+    public Integer call() {
+        Class<? extends BaseWorkflow> workflowClass = PrimaryController.installedWorkflows.get(workflowName);
+        if (workflowClass == null) {
+            LOGGER.error("Unknown workflow %s, choose from %s".formatted(
+                    workflowName, PrimaryController.installedWorkflows.keySet()));
+            return 2;
+        }
+        if (settingsFile != null && !settingsFile.isFile()) {
+            LOGGER.error("Settings file not found: " + settingsFile);
+            return 2;
+        }
+
+        JobScheduler scheduler = new JobScheduler();
+        if (maxJobs != null) scheduler.setMaxConcurrentJobs(maxJobs);
+        List<BaseWorkflow> jobs = new ArrayList<>();
+        for (File file : findInputs()) {
+            BaseWorkflow job;
+            try {
+                job = workflowClass.getConstructor(PrimaryController.class, File.class).newInstance(null, file);
+                job.scheduler = scheduler;
+                if (settingsFile != null) job.loadSettings(settingsFile);
+            } catch (IOException e) {
+                LOGGER.error("Unable to read settings file %s - %s".formatted(settingsFile, e));
+                return 2;
+            } catch (ReflectiveOperationException e) {
+                // We catch these but they ---should--- never happen
+                throw new RuntimeException(e);
+            }
+            job.calculateIO();
+            jobs.add(job);
+        }
+        if (jobs.isEmpty()) {
+            LOGGER.error("No supported files found");
+            scheduler.shutdownNow();
+            return 1;
+        }
+        LOGGER.info("Converting %d file(s) to %s".formatted(jobs.size(), workflowName));
+
+        CountDownLatch remaining = new CountDownLatch(jobs.size());
+        for (BaseWorkflow job : jobs) {
+            scheduler.submit(job, () -> {
+                try {
+                    job.runTasks(() -> false);
+                } catch (Exception e) {
+                    LOGGER.error("Conversion of %s failed - %s".formatted(job.firstInput.getName(), e));
+                    job.status.set(JobState.status.FAILED);
+                } finally {
+                    remaining.countDown();
+                }
+            });
+        }
+        try {
+            remaining.await();
+        } catch (InterruptedException e) {
+            LOGGER.error("Interrupted while waiting for jobs to finish");
+            Thread.currentThread().interrupt();
+        }
+        scheduler.shutdownNow();
+
+        long failed = jobs.stream().filter(job -> job.status.get() != JobState.status.COMPLETED).count();
+        LOGGER.info("Completed %d of %d conversion(s)".formatted(jobs.size() - failed, jobs.size()));
+        return failed == 0 ? 0 : 1;
+    }
+
+    // Expand the supplied inputs into the list of supported files, matching the GUI's file handling.
+    private List<File> findInputs() {
+        List<File> roots = new ArrayList<>();
+        for (File input : inputs) {
+            if (input.exists()) roots.add(input);
+            else LOGGER.warn("Input not found: " + input);
+        }
+        // Files belonging to a multi-file dataset are collapsed into its main file
+        DatasetGrouper grouper = new DatasetGrouper();
+        Set<String> seen = new HashSet<>();
+        List<File> found = new ArrayList<>();
+        new InputScanner(PrimaryController.getSupportedExtensions()).scan(roots, batch -> {
+            DatasetGrouper.Update update = grouper.add(batch);
+            for (File file : update.removed()) {
+                String path = file.getAbsolutePath();
+                if (seen.remove(path)) found.removeIf(f -> f.getAbsolutePath().equals(path));
+            }
+            for (File file : update.added()) if (seen.add(file.getAbsolutePath())) found.add(file);
+        });
+        found.sort(null);
+        return found;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert;
+
+import com.glencoesoftware.convert.tasks.ZarrArchive;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Finds supported image files within a set of dropped files and folders.
+// Each folder is listed by its own fork-join task, so slow listings on network drives overlap rather than queue up.
+// Files are handed back in batches while the walk is still running, so callers can start using them straight away.
+public class InputScanner {
+
+    private static final ch.qos.logback.classic.Logger LOGGER =
+            (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(InputScanner.class);
+
+    // Listing is bound by filesystem latency rather than CPU, so use more threads than a typical core count
+    private static final int scanThreads = 8;
+    private static final long batchIntervalMillis = 250;
+
+    private final Set<String> supportedExtensions;
+    private final ConcurrentLinkedQueue<File> found = new ConcurrentLinkedQueue<>();
+    private final LongAdder checked = new LongAdder();
+    private volatile boolean cancelled = false;
+
+    public InputScanner(Set<String> supportedExtensions) {
+        this.supportedExtensions = supportedExtensions;
+    }
+
+    // Number of files and folders examined so far
+    public long getChecked() {
+        return checked.sum();
+    }
+
+    // Stop the walk, files found so far are still handed back
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Walk the supplied inputs, passing supported files to onBatch as they're found. Blocks until the walk is done.
+    // onBatch is always called from the calling thread, each batch is sorted by path.
+    public void scan(List<File> inputs, Consumer<List<File>> onBatch) {
+        ForkJoinPool pool = new ForkJoinPool(scanThreads);
+        try {
+            ForkJoinTask<Void> walk = pool.submit(new ScanTask(inputs));
+            while (true) {
+                try {
+                    walk.get(batchIntervalMillis, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    emitBatch(onBatch);
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.error("Failed to scan inputs - " + e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        emitBatch(onBatch);
+    }
+
+    private void emitBatch(Consumer<List<File>> onBatch) {
+        List<File> batch = new ArrayList<>();
+        File file;
+        while ((file = found.poll()) != null) batch.add(file);
+        if (batch.isEmpty()) return;
+        batch.sort(null);
+        onBatch.accept(batch);
+    }
+
+    private class ScanTask extends RecursiveAction {
+        private final File directory;
+        private List<File> entries;
+
+        ScanTask(List<File> entries) {
+            this.directory = null;
+            this.entries = entries;
+        }
+
+        ScanTask(File directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled) return;
+            if (directory != null) {
+                File[] children = directory.listFiles();
+                if (children == null) {
+                    LOGGER.warn("Unable to list folder " + directory.getAbsolutePath());
+                    return;
+                }
+                entries = Arrays.asList(children);
+            }
+            List<ScanTask> subfolders = new ArrayList<>();
+            for (File file : entries) {
+                if (cancelled) return;
+                checked.increment();
+                String extension = FilenameUtils.getExtension(file.getName());
+                if (file.isDirectory() && !extension.equals("zarr")) {
+                    // Traverse subdirectory unless it's a zarr
+                    subfolders.add(new ScanTask(file));
+                    continue;
+                }
+                if (supportedExtensions.contains(extension.toLowerCase()) || ZarrArchive.isArchive(file))
+                    found.add(file);
+            }
+            invokeAll(subfolders);
+        }
+    }
+}
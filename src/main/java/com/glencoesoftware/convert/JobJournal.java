@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.glencoesoftware.convert.tasks.BaseTask;
+import com.glencoesoftware.convert.workflows.BaseWorkflow;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Append-only record of the job list, so that an interrupted session can be picked up again.
+// Each line is a JSON event: a job being added (with its settings), queued, started, each task finishing, the job
+// finishing and the job being removed. Events are written by a background thread so that callers (mostly the FX
+// thread) never wait on the disk. Whatever has built up while a write is in progress goes out in the next batch,
+// with a single sync. close() waits for outstanding events.
+// On startup the journal is replayed to find jobs which never completed, then rewritten to hold only those.
+public class JobJournal {
+
+    private static final ch.qos.logback.classic.Logger LOGGER =
+            (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(JobJournal.class);
+
+    private enum event {ADD, QUEUE, START, TASK, FINISH, REMOVE}
+
+    // An unfinished job found in the journal. Started jobs may have left a partial output behind.
+    public record UnfinishedJob(String id, String workflow, File input, JsonNode settings, boolean started) {}
+
+    private static final long closeTimeoutSeconds = 10;
+
+    private final File journalFile;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private FileOutputStream out = null;
+    // Events waiting for the writer thread
+    private final List<ObjectNode> pending = new ArrayList<>();
+    private boolean flushQueued = false;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(
+            r -> JobLogRouter.newThread(r, "Job-Journal"));
+
+    public JobJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    public static File getDefaultLocation() {
+        return new File(new File(System.getProperty("user.home"), ".ngff-converter"), "jobs.journal");
+    }
+
+    // Replay the journal, compact it down to the unfinished jobs and start appending new events
+    public synchronized List<UnfinishedJob> open() throws IOException {
+        Map<String, ObjectNode> jobs = new LinkedHashMap<>();
+        if (journalFile.exists()) {
+            try (BufferedReader reader = Files.newBufferedReader(journalFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) continue;
+                    JsonNode record;
+                    try {
+                        record = mapper.readTree(line);
+                    } catch (JsonProcessingException e) {
+                        // Most likely the last write before a crash
+                        LOGGER.warn("Skipping damaged journal entry");
+                        continue;
+                    }
+                    replay(jobs, record);
+                }
+            }
+        }
+
+        List<UnfinishedJob> unfinished = new ArrayList<>();
+        File compacted = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+        Files.createDirectories(journalFile.getParentFile().toPath());
+        try (FileOutputStream compactedOut = new FileOutputStream(compacted)) {
+            for (ObjectNode job : jobs.values()) {
+                unfinished.add(new UnfinishedJob(job.path("id").asText(), job.path("workflow").asText(),
+                        new File(job.path("input").asText()), job.get("settings"),
+                        job.path("started").asBoolean(false)));
+                compactedOut.write(toLine(job));
+            }
+            compactedOut.getFD().sync();
+        }
+        Files.move(compacted.toPath(), journalFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        out = new FileOutputStream(journalFile, true);
+        LOGGER.info("Job journal has %d unfinished job(s)".formatted(unfinished.size()));
+        return unfinished;
+    }
+
+    // Fold a single journal event into the set of live jobs, keyed by job id
+    private void replay(Map<String, ObjectNode> jobs, JsonNode record) {
+        String id = record.path("id").asText();
+        event type;
+        try {
+            type = event.valueOf(record.path("event").asText());
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Skipping unknown journal event " + record.path("event").asText());
+            return;
+        }
+        ObjectNode job = jobs.get(id);
+        switch (type) {
+            case ADD -> {
+                ObjectNode added = record.deepCopy();
+                added.put("event", event.ADD.name());
+                // Re-adding a job which has already been started (e.g. after compaction) keeps that knowledge
+                if (job != null && job.path("started").asBoolean(false)) added.put("started", true);
+                jobs.put(id, added);
+            }
+            case QUEUE -> {
+                if (job != null && record.has("settings")) job.set("settings", record.get("settings"));
+            }
+            case START, TASK -> {
+                if (job != null) job.put("started", true);
+            }
+            case FINISH -> {
+                if (job != null && JobState.status.COMPLETED.name().equals(record.path("status").asText()))
+                    jobs.remove(id);
+            }
+            case REMOVE -> jobs.remove(id);
+        }
+    }
+
+    public void jobsAdded(List<? extends BaseWorkflow> added) {
+        List<ObjectNode> records = new ArrayList<>(added.size());
+        for (BaseWorkflow job : added) {
+            ObjectNode record = newRecord(event.ADD, job);
+            record.put("workflow", job.getShortName());
+            record.put("input", job.firstInput.getAbsolutePath());
+            record.set("settings", job.getSettingsNode());
+            records.add(record);
+        }
+        append(records);
+    }
+
+    // Settings are final once a job is queued
+    public void jobQueued(BaseWorkflow job) {
+        ObjectNode record = newRecord(event.QUEUE, job);
+        record.set("settings", job.getSettingsNode());
+        append(record);
+    }
+
+    public void jobStarted(BaseWorkflow job) {
+        append(newRecord(event.START, job));
+    }
+
+    public void taskFinished(BaseWorkflow job, BaseTask task) {
+        ObjectNode record = newRecord(event.TASK, job);
+        record.put("task", task.getName());
+        record.put("status", task.status.name());
+        if (task.getOutput() != null) record.put("output", task.getOutput().getAbsolutePath());
+        append(record);
+    }
+
+    public void jobFinished(BaseWorkflow job) {
+        ObjectNode record = newRecord(event.FINISH, job);
+        record.put("status", job.status.get().name());
+        if (job.finalOutput != null) record.put("output", job.finalOutput.getAbsolutePath());
+        append(record);
+    }
+
+    public void jobsRemoved(List<? extends BaseWorkflow> removed) {
+        List<ObjectNode> records = new ArrayList<>(removed.size());
+        for (BaseWorkflow job : removed) records.add(newRecord(event.REMOVE, job.jobId));
+        append(records);
+    }
+
+    // Drop a journalled job which couldn't be restored
+    public void discard(String id) {
+        append(newRecord(event.REMOVE, id));
+    }
+
+    private ObjectNode newRecord(event type, BaseWorkflow job) {
+        return newRecord(type, job.jobId);
+    }
+
+    private ObjectNode newRecord(event type, String id) {
+        ObjectNode record = mapper.createObjectNode();
+        record.put("event", type.name());
+        record.put("id", id);
+        record.put("time", System.currentTimeMillis());
+        return record;
+    }
+
+    private byte[] toLine(JsonNode record) throws JsonProcessingException {
+        return (mapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void append(ObjectNode record) {
+        append(List.of(record));
+    }
+
+    // Hand a group of events to the writer thread
+    private synchronized void append(List<ObjectNode> records) {
+        if (out == null || records.isEmpty() || writer.isShutdown()) return;
+        pending.addAll(records);
+        if (flushQueued) return;
+        flushQueued = true;
+        writer.execute(this::flush);
+    }
+
+    // Write everything pending with a single sync. Runs on the writer thread.
+    private void flush() {
+        List<ObjectNode> batch;
+        FileOutputStream target;
+        synchronized (this) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+            flushQueued = false;
+            target = out;
+        }
+        if (target == null || batch.isEmpty()) return;
+        try {
+            ByteArrayOutputStream lines = new ByteArrayOutputStream();
+            for (ObjectNode record : batch) lines.write(toLine(record));
+            target.write(lines.toByteArray());
+            target.getFD().sync();
+        } catch (IOException e) {
+            LOGGER.error("Failed to write to job journal - " + e);
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            // Nothing new is accepted, anything already pending is still written
+            writer.shutdown();
+        }
+        try {
+            if (!writer.awaitTermination(closeTimeoutSeconds, TimeUnit.SECONDS))
+                LOGGER.warn("Timed out writing to job journal");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (out == null) return;
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.error("Failed to close job journal - " + e);
+            }
+            out = null;
+        }
+    }
+}
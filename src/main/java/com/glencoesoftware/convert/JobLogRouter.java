@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.AppenderBase;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+// Single root appender which hands each log event to the sinks of the job that produced it.
+// A job binds its sinks on the thread running it. The binding is inheritable, so the worker threads which
+// bioformats2raw and raw2ometiff create during the job route to the same sinks. Events from anywhere else
+// (other jobs, the FX thread) never reach a job's sinks.
+// Long-lived pools shared between jobs must create their threads with newThread, otherwise each thread would keep
+// the sinks of whichever job happened to start it. Work such a pool does for a job is routed explicitly with
+// current() and runAs().
+public class JobLogRouter extends AppenderBase<ILoggingEvent> {
+
+    private static final InheritableThreadLocal<List<Appender<ILoggingEvent>>> jobSinks =
+            new InheritableThreadLocal<>();
+    private static JobLogRouter instance = null;
+
+    private static synchronized void install() {
+        if (instance != null) return;
+        LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
+        instance = new JobLogRouter();
+        instance.setName("JobLogRouter");
+        instance.setContext(lc);
+        instance.start();
+        lc.getLogger(Logger.ROOT_LOGGER_NAME).addAppender(instance);
+    }
+
+    // Route events from the calling thread (and threads it goes on to create) to the supplied appenders
+    public static void bind(List<Appender<ILoggingEvent>> sinks) {
+        install();
+        jobSinks.set(List.copyOf(sinks));
+    }
+
+    public static void unbind() {
+        jobSinks.remove();
+    }
+
+    // Sinks bound to the calling thread, null if it isn't running a job
+    public static List<Appender<ILoggingEvent>> current() {
+        return jobSinks.get();
+    }
+
+    // Run work on the calling thread with its events routed to the supplied sinks (or nowhere if null), then
+    // restore the thread's own binding
+    public static void runAs(List<Appender<ILoggingEvent>> sinks, Runnable work) {
+        List<Appender<ILoggingEvent>> previous = jobSinks.get();
+        if (sinks == null) jobSinks.remove();
+        else jobSinks.set(sinks);
+        try {
+            work.run();
+        } finally {
+            if (previous == null) jobSinks.remove();
+            else jobSinks.set(previous);
+        }
+    }
+
+    // Daemon thread for a pool shared between jobs, which doesn't inherit the creating job's sinks
+    public static Thread newThread(Runnable r, String name) {
+        Thread t = new Thread(null, r, name, 0, false);
+        t.setDaemon(true);
+        return t;
+    }
+
+    // As newThread, for fork-join pools shared between jobs
+    public static ForkJoinWorkerThread newForkJoinThread(ForkJoinPool pool) {
+        return new ForkJoinWorkerThread(pool) {
+            @Override
+            protected void onStart() {
+                super.onStart();
+                jobSinks.remove();
+            }
+        };
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        List<Appender<ILoggingEvent>> sinks = jobSinks.get();
+        if (sinks == null) return;
+        for (Appender<ILoggingEvent> sink : sinks) {
+            // A finished job's appenders are stopped
+            if (sink.isStarted()) sink.doAppend(event);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert;
+
+import com.glencoesoftware.convert.tasks.ResourceTuner;
+import com.glencoesoftware.convert.workflows.BaseWorkflow;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs queued workflows on a pool of converter threads.
+// Jobs are admitted in the order they were queued, as long as fewer than maxConcurrentJobs are running and the
+// job's worker threads fit into the remaining worker budget. A job is always admitted when nothing else is
+// running, so a single job which wants more workers than the budget allows can still execute.
+// Jobs which size their workers automatically are given an even split of the free workers between the queued jobs
+// which could start now, so a lone job gets the whole budget and a large batch shares it.
+// Each running job also reserves the disk space it's expected to need (see SizeEstimator). A job is held back while
+// starting it would leave less than minFreeBytes on any drive, after allowing for what running jobs have yet to
+// write. Held jobs are checked again whenever space is freed, and periodically in case it's freed elsewhere.
+// Estimates are supplied with the job where possible; otherwise the job at the head of the queue is estimated on a
+// background thread, so neither the caller nor the scheduler lock waits on the disk. What running jobs have written
+// is taken from their tasks' progress rather than measured.
+public class JobScheduler {
+
+    private static final ch.qos.logback.classic.Logger LOGGER =
+            (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(JobScheduler.class);
+
+    private record PendingJob(BaseWorkflow job, Runnable work) {}
+
+    private final Deque<PendingJob> pending = new ArrayDeque<>();
+    private final AtomicInteger threadCount = new AtomicInteger(0);
+    // Threads are reused between jobs, so they mustn't keep the log routing of the job which created them
+    private final ExecutorService pool = Executors.newCachedThreadPool(
+            r -> JobLogRouter.newThread(r, "Converter-" + threadCount.incrementAndGet()));
+
+    private int maxConcurrentJobs;
+    private final int workerBudget;
+    private int runningJobs = 0;
+    private int workersInUse = 0;
+    private final Map<BaseWorkflow, Integer> workerReservations = new HashMap<>();
+
+    public static final long defaultMinFreeMB = 1024;
+    private static final long spaceRecheckSeconds = 30;
+    private long minFreeBytes = defaultMinFreeMB * 1024 * 1024;
+    // Expected space needed on each drive, for queued jobs that have been looked at and for running jobs
+    private final Map<BaseWorkflow, Map<FileStore, Long>> estimates = new HashMap<>();
+    private final Map<BaseWorkflow, Map<FileStore, Long>> reservations = new HashMap<>();
+    private BaseWorkflow heldForSpace = null;
+    private BaseWorkflow beingEstimated = null;
+    private boolean recheckScheduled = false;
+    private final ScheduledExecutorService spaceChecker = Executors.newSingleThreadScheduledExecutor(
+            r -> JobLogRouter.newThread(r, "Disk-Space-Check"));
+
+    public JobScheduler(int maxConcurrentJobs, int workerBudget) {
+        this.maxConcurrentJobs = Math.max(1, maxConcurrentJobs);
+        this.workerBudget = Math.max(1, workerBudget);
+    }
+
+    // By default the worker budget matches the available cores. Jobs using the bioformats2raw default worker count
+    // will claim the whole budget and so still run one at a time, as will a lone job sizing its workers
+    // automatically.
+    public JobScheduler() {
+        this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors());
+    }
+
+    public synchronized void setMaxConcurrentJobs(int maxJobs) {
+        maxConcurrentJobs = Math.max(1, maxJobs);
+        LOGGER.debug("Concurrent job limit set to %d".formatted(maxConcurrentJobs));
+        admitJobs();
+    }
+
+    public synchronized int getMaxConcurrentJobs() {
+        return maxConcurrentJobs;
+    }
+
+    public synchronized void setMinFreeSpace(long megabytes) {
+        minFreeBytes = Math.max(0, megabytes) * 1024 * 1024;
+        admitJobs();
+    }
+
+    public int getWorkerBudget() {
+        return workerBudget;
+    }
+
+    public synchronized int queueSize() {
+        return pending.size();
+    }
+
+    public synchronized int runningJobs() {
+        return runningJobs;
+    }
+
+    // Worker threads claimed by a running job when it was admitted, 0 if it isn't running
+    public synchronized int getReservedWorkers(BaseWorkflow job) {
+        return workerReservations.getOrDefault(job, 0);
+    }
+
+    // Space a job is expected to need on each drive, worked out by the caller before it's submitted
+    public synchronized void setEstimate(BaseWorkflow job, Map<FileStore, Long> needed) {
+        estimates.put(job, needed);
+    }
+
+    // Queue a unit of work on behalf of a workflow. It will start once the scheduler can admit it.
+    public synchronized void submit(BaseWorkflow job, Runnable work) {
+        job.scheduler = this;
+        pending.add(new PendingJob(job, work));
+        admitJobs();
+    }
+
+    // Drop any queued (not yet started) work belonging to the supplied workflow.
+    public synchronized boolean remove(BaseWorkflow job) {
+        Iterator<PendingJob> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().job() == job) {
+                iterator.remove();
+                estimates.remove(job);
+                if (heldForSpace == job) heldForSpace = null;
+                // The jobs behind it may have been waiting on it
+                admitJobs();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void shutdownNow() {
+        pending.clear();
+        pool.shutdownNow();
+        spaceChecker.shutdownNow();
+    }
+
+    // Called when a job deletes files, so that jobs waiting for space can be reconsidered
+    public synchronized void spaceFreed() {
+        if (heldForSpace != null) admitJobs();
+    }
+
+    private synchronized void admitJobs() {
+        while (!pending.isEmpty() && !pool.isShutdown()) {
+            PendingJob next = pending.peek();
+            int cost = Math.max(1, next.job().getRequiredWorkers());
+            if (next.job().adaptsWorkers()) cost = Math.max(cost, freeShare());
+            if (runningJobs > 0 && (runningJobs >= maxConcurrentJobs || workersInUse + cost > workerBudget)) {
+                // Wait for a running job to finish before admitting more work
+                return;
+            }
+            Map<FileStore, Long> needed = estimates.get(next.job());
+            if (needed == null) {
+                // Admission continues once the estimate is in
+                requestEstimate(next.job());
+                return;
+            }
+            FileStore full = findFullDrive(needed);
+            if (full != null) {
+                if (heldForSpace != next.job()) LOGGER.warn("Holding %s until there is more space on %s".formatted(
+                        next.job().firstInput.getName(), full));
+                heldForSpace = next.job();
+                scheduleRecheck();
+                return;
+            }
+            if (heldForSpace == next.job()) {
+                LOGGER.info("Resuming with %s".formatted(next.job().firstInput.getName()));
+                heldForSpace = null;
+            }
+            pending.remove();
+            estimates.remove(next.job());
+            reservations.put(next.job(), needed);
+            workerReservations.put(next.job(), cost);
+            runningJobs++;
+            workersInUse += cost;
+            LOGGER.debug("Starting %s with %d worker(s), %d/%d workers in use".formatted(
+                    next.job().firstInput.getName(), cost, workersInUse, workerBudget));
+            pool.execute(() -> {
+                try {
+                    next.work().run();
+                } finally {
+                    release(next.job(), cost);
+                }
+            });
+        }
+    }
+
+    // Workers for the job at the head of the queue if it takes an even split of what's free
+    private int freeShare() {
+        int starting = Math.min(pending.size(), Math.max(1, maxConcurrentJobs - runningJobs));
+        return ResourceTuner.share(workerBudget - workersInUse, starting, Runtime.getRuntime().maxMemory());
+    }
+
+    private synchronized void release(BaseWorkflow job, int cost) {
+        runningJobs--;
+        workersInUse -= cost;
+        reservations.remove(job);
+        workerReservations.remove(job);
+        admitJobs();
+    }
+
+    // First drive which would drop below the free space threshold if a job needing the supplied space started,
+    // or null if it fits everywhere
+    private FileStore findFullDrive(Map<FileStore, Long> needed) {
+        Map<BaseWorkflow, Map<FileStore, Long>> written = new HashMap<>();
+        for (Map.Entry<FileStore, Long> entry : needed.entrySet()) {
+            FileStore store = entry.getKey();
+            // Space running jobs have reserved on this drive but not used yet
+            long outstanding = 0;
+            for (Map.Entry<BaseWorkflow, Map<FileStore, Long>> reservation : reservations.entrySet()) {
+                Long reserved = reservation.getValue().get(store);
+                if (reserved == null) continue;
+                long used = written.computeIfAbsent(reservation.getKey(), SizeEstimator::writtenByJob)
+                        .getOrDefault(store, 0L);
+                outstanding += Math.max(0, reserved - used);
+            }
+            try {
+                if (store.getUsableSpace() - outstanding - entry.getValue() < minFreeBytes) return store;
+            } catch (IOException e) {
+                LOGGER.debug("Unable to check free space on %s - %s".formatted(store, e));
+            }
+        }
+        return null;
+    }
+
+    private void requestEstimate(BaseWorkflow job) {
+        if (beingEstimated == job || spaceChecker.isShutdown()) return;
+        beingEstimated = job;
+        spaceChecker.execute(() -> {
+            Map<FileStore, Long> needed;
+            try {
+                needed = SizeEstimator.estimateJob(job);
+            } catch (RuntimeException e) {
+                // Better to run without a space check than to hold the queue forever
+                LOGGER.warn("Unable to estimate space for %s - %s".formatted(job.firstInput.getName(), e));
+                needed = Map.of();
+            }
+            Map<FileStore, Long> estimate = needed;
+            synchronized (this) {
+                if (beingEstimated == job) beingEstimated = null;
+                if (pending.stream().anyMatch(queued -> queued.job() == job)) estimates.put(job, estimate);
+                admitJobs();
+            }
+        });
+    }
+
+    private void scheduleRecheck() {
+        if (recheckScheduled || spaceChecker.isShutdown()) return;
+        recheckScheduled = true;
+        spaceChecker.schedule(() -> {
+            synchronized (this) {
+                recheckScheduled = false;
+                admitJobs();
+            }
+        }, spaceRecheckSeconds, TimeUnit.SECONDS);
+    }
+}
@@ -11,6 +11,7 @@ import javafx.scene.paint.Color;
 import javafx.scene.paint.Paint;
 import org.kordamp.ikonli.javafx.FontIcon;
 
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -47,6 +48,21 @@ public class JobState {
         return icon;
     }
 
+    // Status icons for a single table cell. A node can only be displayed in one place, so each cell keeps its own
+    // set and swaps between them instead of building a new icon on every update.
+    public static class IconCache {
+        private final int size;
+        private final Map<status, FontIcon> icons = new EnumMap<>(status.class);
+
+        public IconCache(int size) {
+            this.size = size;
+        }
+
+        public FontIcon get(status statusCode) {
+            return icons.computeIfAbsent(statusCode, code -> getStatusIcon(code, size));
+        }
+    }
+
     public static FontIcon getCircleIcon(status statusCode, int size) {
         FontIcon icon = new FontIcon("bi-circle-fill");
         icon.setIconSize(size);
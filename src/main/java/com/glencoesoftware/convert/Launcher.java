@@ -6,8 +6,14 @@
  */
 package com.glencoesoftware.convert;
 
+import java.util.Arrays;
+
 public class Launcher {
     public static void main(String[] args) {
+        // Skip JavaFX entirely when running from the command line
+        if (args.length > 0 && args[0].equals(HeadlessRunner.flag)) {
+            HeadlessRunner.main(Arrays.copyOfRange(args, 1, args.length));
+        }
         App.main(args);
     }
 }
@@ -15,6 +15,7 @@ import com.glencoesoftware.convert.tasks.BaseTask;
 import com.glencoesoftware.convert.tasks.CreateNGFF;
 import com.glencoesoftware.convert.tasks.CreateTiff;
 import com.glencoesoftware.convert.tasks.Output;
+import com.glencoesoftware.convert.tasks.progress.ProgressPublisher;
 import com.glencoesoftware.convert.workflows.BaseWorkflow;
 import com.glencoesoftware.convert.workflows.ConvertToNGFF;
 import com.glencoesoftware.convert.workflows.ConvertToTiff;
@@ -45,7 +46,6 @@ import javafx.scene.paint.Color;
 import javafx.stage.*;
 import javafx.stage.Window;
 import loci.formats.ImageReader;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.controlsfx.control.HyperlinkLabel;
 import org.controlsfx.control.Notifications;
@@ -63,13 +63,18 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.FileStore;
 import java.util.List;
-import java.util.Queue;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
+import java.util.stream.IntStream;
 
 import static java.util.Map.entry;
 
@@ -111,14 +116,38 @@ public class PrimaryController {
     public MenuItem menuRemoveFile;
     public MenuItem menuClearFinished;
     public MenuItem menuClearAll;
+    public MenuItem menuStopScan;
     public MenuItem menuResetPrefs;
     public MenuBar menuBar;
 
     private List<MenuItem> menuControlButtons;
 
-    public final Set<String> supportedExtensions = new HashSet<>(Arrays.asList(new ImageReader().getSuffixes()));
+    // Records the job list so that unfinished jobs survive a crash. Null if the journal couldn't be opened.
+    public JobJournal journal = null;
 
-    public enum prefName {DEFAULT_FORMAT, SHOW_FORMAT_DLG, LAST_UPDATE}
+    // Runs every job added from the GUI
+    public final JobScheduler scheduler = App.scheduler;
+
+    private final ExecutorService scanExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Input-Scanner");
+        t.setDaemon(true);
+        return t;
+    });
+    // Separate from scans, so that starting jobs doesn't wait for a large drop to finish scanning
+    private final ExecutorService estimateExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Space-Estimator");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Scans which are running or waiting to run, so they can be stopped
+    private final Set<InputScanner> activeScans = ConcurrentHashMap.newKeySet();
+
+    public final Set<String> supportedExtensions = getSupportedExtensions();
+
+    public enum prefName {DEFAULT_FORMAT, SHOW_FORMAT_DLG, LAST_UPDATE, CONCURRENT_JOBS, PROGRESS_RATE,
+        LOG_QUEUE_SIZE, LOG_DISCARD_THRESHOLD, SKIP_CONVERTED, SKIP_CONVERTED_HASH,
+        MEMO_CACHE_LIMIT, MIN_FREE_SPACE}
 
     public static final Preferences userPreferences = Preferences.userRoot();
 
@@ -145,11 +174,17 @@ public class PrimaryController {
     );
 
 
+    // File extensions which can be added as jobs. Also used by the headless runner.
+    public static Set<String> getSupportedExtensions() {
+        Set<String> extensions = new HashSet<>(Arrays.asList(new ImageReader().getSuffixes()));
+        extensions.add("zarr");
+        extensions.add("mrxs");
+        return extensions;
+    }
+
     @FXML
     public void initialize() throws IOException {
         LOGGER.setLevel(Level.DEBUG);
-        supportedExtensions.add("zarr");
-        supportedExtensions.add("mrxs");
         menuBar.setUseSystemMenuBar(true);
 
         // Hide jobs pane until we need it.
@@ -204,6 +239,15 @@ public class PrimaryController {
             }
         }));
 
+        // Keep the journal in step with the job list
+        jobList.getItems().addListener((ListChangeListener<BaseWorkflow>)(c -> {
+            if (journal == null) return;
+            while (c.next()) {
+                if (c.wasRemoved()) journal.jobsRemoved(c.getRemoved());
+                if (c.wasAdded()) journal.jobsAdded(c.getAddedSubList());
+            }
+        }));
+
         // Monitor the job list and display tasks when a job is clicked.
         jobList.getSelectionModel().selectedItemProperty().addListener((obs, oldSelection, newSelection) -> {
             if (oldSelection != null) {
@@ -228,11 +272,21 @@ public class PrimaryController {
         queuedJobs.addListener((o, oldPos, newPos) -> Platform.runLater(this::updateProgress));
         completedJobs.addListener((o, oldPos, newPos) -> Platform.runLater(this::updateProgress));
 
+        // Restore the saved concurrent job limit
+        scheduler.setMaxConcurrentJobs(userPreferences.getInt(prefName.CONCURRENT_JOBS.name(),
+                scheduler.getMaxConcurrentJobs()));
+        scheduler.setMinFreeSpace(userPreferences.getLong(prefName.MIN_FREE_SPACE.name(),
+                JobScheduler.defaultMinFreeMB));
+        // Progress display refresh rate (updates per second)
+        ProgressPublisher.setMaxUpdatesPerSecond(userPreferences.getInt(prefName.PROGRESS_RATE.name(),
+                ProgressPublisher.defaultUpdatesPerSecond));
+
         // Array of menu controls we want to lock during a run.
         menuControlButtons = Arrays.asList(menuOutputFormat, menuAddFiles, menuAddZarr, menuRemoveFile,
                 menuClearFinished, menuClearAll, menuResetPrefs);
         initSecondaryDialogs();
         autoCheckForUpdate();
+        restoreJournal();
         updateStatus("Startup complete");
     }
 
@@ -316,6 +370,32 @@ public class PrimaryController {
         }
     }
 
+    @FXML
+    private void configureConcurrency() {
+        List<Integer> choices = IntStream.rangeClosed(1, scheduler.getWorkerBudget()).boxed().toList();
+        ChoiceDialog<Integer> dialog = new ChoiceDialog<>(scheduler.getMaxConcurrentJobs(), choices);
+        dialog.initOwner(App.getScene().getWindow());
+        dialog.setTitle("Concurrent Jobs");
+        dialog.setHeaderText("Maximum number of jobs to run at once");
+        dialog.setContentText("""
+                Jobs only run together while their combined 'Max Workers'
+                settings fit within the %d available cores.
+
+                Concurrent jobs:""".formatted(scheduler.getWorkerBudget()));
+        dialog.getDialogPane().getStylesheets().add(
+                Objects.requireNonNull(App.class.getResource("Alert.css")).toExternalForm());
+        dialog.showAndWait().ifPresent(limit -> {
+            scheduler.setMaxConcurrentJobs(limit);
+            userPreferences.putInt(prefName.CONCURRENT_JOBS.name(), limit);
+            try {
+                userPreferences.flush();
+            } catch (BackingStoreException e) {
+                LOGGER.error("Unable to save preferences" + e);
+            }
+            updateStatus("Up to %d jobs will run at once".formatted(limit));
+        });
+    }
+
     @FXML
     private void programHelp() {
         try {
@@ -376,17 +456,21 @@ public class PrimaryController {
 
     @FXML
     private void clearFiles() {
+        cancelScans();
         jobList.getItems().clear();
     }
 
+    // Stop adding files from any scans still in progress
+    @FXML
+    public void cancelScans() {
+        if (activeScans.isEmpty()) return;
+        LOGGER.info("Stopping file scan");
+        activeScans.forEach(InputScanner::cancel);
+    }
+
     @FXML
     private void removeSelected() {
-        List<BaseWorkflow> new_list = jobList.getItems()
-                .stream()
-                .filter((item) -> (!item.getSelected().getValue()))
-                .toList();
-        jobList.getItems().clear();
-        jobList.getItems().addAll(new_list);
+        jobList.getItems().removeIf((item) -> (item.getSelected().getValue()));
     }
 
     @FXML
@@ -458,60 +542,168 @@ public class PrimaryController {
         // Handle if user cancelled
         if (!wantProceed) return;
         String desiredFormat = addFilesController.getOutputFormat();
+        Constructor<? extends BaseWorkflow> jobClass;
+        try {
+            // Lookup the job name in the workflow list
+            jobClass = installedWorkflows.get(desiredFormat).getConstructor(PrimaryController.class, File.class);
+        } catch (NoSuchMethodException e) {
+            // We catch these but they ---should--- never happen
+            throw new RuntimeException(e);
+        }
 
-        Queue<File> fileQueue = new LinkedList<>(files);
-        List<BaseWorkflow> jobs = jobList.getItems();
+        // Walk the inputs in the background and add jobs as files are found, so that large folder trees don't
+        // freeze the interface. Scans run one at a time so that each sees the jobs added by the one before.
+        InputScanner scanner = new InputScanner(supportedExtensions);
+        activeScans.add(scanner);
+        menuStopScan.setDisable(false);
+        // Files belonging to a multi-file dataset are collapsed into one job for the dataset's main file
+        DatasetGrouper grouper = new DatasetGrouper();
+        AtomicInteger count = new AtomicInteger(0);
         HashSet<String> existing = new HashSet<>();
-        for (BaseWorkflow job : jobs)
-            if (job.status.get() != JobState.status.COMPLETED) existing.add(job.firstInput.getAbsolutePath());
-        int count = 0;
-        while (!fileQueue.isEmpty()) {
-            File file = fileQueue.remove();
-            String extension = FilenameUtils.getExtension(file.getName());
-            if (file.isDirectory() && !extension.equals("zarr")) {
-                // Traverse subdirectory unless it's a zarr
-                fileQueue.addAll(Arrays.asList(Objects.requireNonNull(file.listFiles())));
-                continue;
-            }
-            if (!supportedExtensions.contains(extension.toLowerCase())) {
-                // Not a supported image file
-                continue;
+        // Jobs which were on the list before this scan, and so don't count towards the jobs it added
+        HashSet<String> previous = new HashSet<>();
+        scanExecutor.execute(() -> {
+            FutureTask<List<BaseWorkflow>> queued = new FutureTask<>(() -> {
+                List<BaseWorkflow> jobs = new ArrayList<>();
+                for (BaseWorkflow job : jobList.getItems())
+                    if (job.status.get() != JobState.status.COMPLETED) {
+                        existing.add(job.firstInput.getAbsolutePath());
+                        previous.add(job.firstInput.getAbsolutePath());
+                        jobs.add(job);
+                    }
+                statusBar.setProgress(-1);
+                return jobs;
+            });
+            Platform.runLater(queued);
+            try {
+                // Group new files with the datasets of jobs already on the list, as cached by each job
+                Map<File, Set<String>> datasets = new HashMap<>();
+                for (BaseWorkflow job : queued.get()) datasets.put(job.firstInput, job.getDatasetFiles());
+                grouper.addQueued(datasets);
+            } catch (InterruptedException | ExecutionException e) {
+                LOGGER.warn("Unable to check new files against the job list - " + e);
             }
+            scanner.scan(files, batch -> {
+                DatasetGrouper.Update update = grouper.add(batch);
+                long checked = scanner.getChecked();
+                Platform.runLater(() -> {
+                    // Nothing more is added once the user stops the scan or clears the list
+                    if (scanner.isCancelled()) return;
+                    removeJobs(update.removed(), existing, previous, count);
+                    addJobs(update.added(), jobClass, existing, count);
+                    statusBar.setText("Scanning - checked %d files, added %d jobs".formatted(
+                            checked, count.get()));
+                });
+            });
+            activeScans.remove(scanner);
+            Platform.runLater(() -> {
+                menuStopScan.setDisable(activeScans.isEmpty());
+                updateProgress();
+                LOGGER.info("Added %d jobs".formatted(count.get()));
+                statusBar.setText("Added %d jobs".formatted(count.get()));
+                if (scanner.isCancelled()) statusBar.setText("Stopped adding files, added %d jobs".formatted(
+                        count.get()));
+                else if (count.get() == 0) {
+                    Window primary = App.getScene().getWindow();
+                    Alert alert = new Alert(Alert.AlertType.WARNING,
+                            "Selected file(s) already in the job list or not supported",
+                            ButtonType.OK);
+                    alert.initOwner(primary);
+                    alert.setTitle("Add Jobs");
+                    alert.setHeaderText("No jobs added");
+                    alert.getDialogPane().getStylesheets().add(
+                            Objects.requireNonNull(App.class.getResource("Alert.css")).toExternalForm());
+                    alert.showAndWait();
+                }
+            });
+        });
+    }
+
+    // Drop jobs which turned out to be part of another dataset, unless they're running or done. FX thread only.
+    private void removeJobs(List<File> files, Set<String> existing, Set<String> previous, AtomicInteger count) {
+        if (files.isEmpty()) return;
+        Set<String> paths = new HashSet<>();
+        for (File file : files) paths.add(file.getAbsolutePath());
+        List<BaseWorkflow> redundant = jobList.getItems().stream()
+                .filter(job -> switch (job.status.get()) {
+                    case READY, QUEUED, WARNING, FAILED -> true;
+                    default -> false;
+                })
+                .filter(job -> paths.contains(job.firstInput.getAbsolutePath()))
+                .toList();
+        for (BaseWorkflow job : redundant) {
+            if (job.status.get() == JobState.status.QUEUED) job.cancelJob();
+            existing.remove(job.firstInput.getAbsolutePath());
+            if (!previous.remove(job.firstInput.getAbsolutePath())) count.decrementAndGet();
+        }
+        jobList.getItems().removeAll(redundant);
+    }
+
+    // Create jobs for a batch of discovered files. FX thread only.
+    private void addJobs(List<File> files, Constructor<? extends BaseWorkflow> jobClass,
+                         Set<String> existing, AtomicInteger count) {
+        List<BaseWorkflow> newJobs = new ArrayList<>(files.size());
+        for (File file : files) {
             String filePath = file.getAbsolutePath();
-            if (existing.contains(filePath)){
+            if (!existing.add(filePath)){
                 LOGGER.debug("File already in queue: " + file.getName());
                 continue;
             }
             BaseWorkflow job;
             try {
-                // Lookup the job name in the workflow list
-                Constructor<? extends BaseWorkflow> jobClass = installedWorkflows.get(
-                        desiredFormat).getConstructor(PrimaryController.class, File.class);
                 job = jobClass.newInstance(this, file);
+            } catch (InvocationTargetException | InstantiationException | IllegalAccessException e) {
+                // We catch these but they ---should--- never happen
+                throw new RuntimeException(e);
+            }
+            job.calculateIO();
+            newJobs.add(job);
+        }
+        // Add the whole batch at once so that the list only processes a single change
+        jobList.getItems().addAll(newJobs);
+        count.addAndGet(newJobs.size());
+    }
+
+    // Put jobs which didn't complete in the previous session back on the list
+    private void restoreJournal() {
+        JobJournal opened = new JobJournal(JobJournal.getDefaultLocation());
+        List<JobJournal.UnfinishedJob> unfinished;
+        try {
+            unfinished = opened.open();
+        } catch (IOException e) {
+            LOGGER.error("Unable to open job journal, the job list won't be saved - " + e);
+            return;
+        }
+        journal = opened;
+        List<BaseWorkflow> restored = new ArrayList<>();
+        for (JobJournal.UnfinishedJob entry : unfinished) {
+            Class<? extends BaseWorkflow> workflowClass = installedWorkflows.get(entry.workflow());
+            if (workflowClass == null || !entry.input().exists()) {
+                LOGGER.warn("Unable to restore job for " + entry.input());
+                journal.discard(entry.id());
+                continue;
+            }
+            BaseWorkflow job;
+            try {
+                job = workflowClass.getConstructor(PrimaryController.class, File.class).newInstance(
+                        this, entry.input());
             } catch (NoSuchMethodException | InvocationTargetException | InstantiationException |
                      IllegalAccessException e) {
                 // We catch these but they ---should--- never happen
                 throw new RuntimeException(e);
             }
-
+            job.jobId = entry.id();
+            // Keeps the user's overwrite choice. Partial outputs from an interrupted run are picked up by the NGFF
+            // ledger, and final outputs only appear once they're complete.
+            if (entry.settings() != null) job.loadSettings(entry.settings());
             job.calculateIO();
-            jobs.add(job);
-            count++;
-        }
-        LOGGER.info("Added %d jobs".formatted(count));
-        updateStatus("Added %d jobs".formatted(count));
-        if (count == 0) {
-            Window primary = App.getScene().getWindow();
-            Alert alert = new Alert(Alert.AlertType.WARNING,
-                    "Selected file(s) already in the job list or not supported",
-                    ButtonType.OK);
-            alert.initOwner(primary);
-            alert.setTitle("Add Jobs");
-            alert.setHeaderText("No jobs added");
-            alert.getDialogPane().getStylesheets().add(
-                    Objects.requireNonNull(App.class.getResource("Alert.css")).toExternalForm());
-            alert.showAndWait();
+            restored.add(job);
         }
+        if (restored.isEmpty()) return;
+        jobList.getItems().addAll(restored);
+        LOGGER.info("Restored %d unfinished job(s)".formatted(restored.size()));
+        Platform.runLater(() -> updateStatus("Restored %d unfinished job(s) from the previous session".formatted(
+                restored.size())));
     }
 
     @FXML
@@ -519,16 +711,12 @@ public class PrimaryController {
         if (!jobsRunning() && event.getCode().equals(KeyCode.DELETE)) {
             removeFile();
         }
+        if (event.getCode().equals(KeyCode.ESCAPE)) cancelScans();
     }
 
     @FXML
     private void clearFinished() {
-        List<BaseWorkflow> new_list = jobList.getItems()
-                .stream()
-                .filter((item) -> (item.status.get() != JobState.status.COMPLETED))
-                .toList();
-        jobList.getItems().clear();
-        jobList.getItems().addAll(new_list);
+        jobList.getItems().removeIf((item) -> (item.status.get() == JobState.status.COMPLETED));
         updateStatus("Cleared completed job(s)");
     }
 
@@ -681,7 +869,6 @@ public class PrimaryController {
             if (job.status.get() == JobState.status.QUEUED ||
                     job.status.get() == JobState.status.RUNNING) job.cancelJob();
         });
-        jobList.refresh();
     }
 
     @FXML
@@ -692,42 +879,55 @@ public class PrimaryController {
             return;
         }
 
-        // Validate there is enough space to perform conversions.
+        // Validate there is enough space to perform conversions. Measuring inputs can take a while, so the
+        // estimate is made off the FX thread and jobs are queued once it's been checked.
         updateStatus("Validating drive space");
-        HashMap<Path, Double> spaceMap = new HashMap<>();
-        jobList.getItems().stream().filter(BaseWorkflow::canRun).forEach(job -> {
-                    double estimatedSize = job.firstInput.length() * 1.3;
-                    Path targetDrive = Paths.get(job.finalOutput.getAbsolutePath()).getRoot();
-                    double neededSpace = spaceMap.getOrDefault(targetDrive, 0.0);
-                    spaceMap.put(targetDrive, neededSpace + estimatedSize);
-                });
-        for (Map.Entry<Path, Double> entry : spaceMap.entrySet()) {
-            Path drive = entry.getKey();
-            double neededSpace = entry.getValue();
-            double freeSpace = new File(drive.toString()).getFreeSpace();
-            if (freeSpace < neededSpace) {
-                Optional<ButtonType> result = warnLowDriveSpace(drive, (long) neededSpace, (long) freeSpace);
-                if (result.isPresent() && result.get() == ButtonType.YES){
-                    LOGGER.info("User opted to continue despite disk space warning");
-                } else {
-                    LOGGER.error("User aborted conversions in response to disk space warning");
-                    updateStatus("Run cancelled");
-                    return;
-                }}
-            }
-
+        List<BaseWorkflow> runnable = jobList.getItems().stream().filter(BaseWorkflow::canRun).toList();
+        int concurrentJobs = scheduler.getMaxConcurrentJobs();
+        runJobsButton.setDisable(true);
+        menuRun.setDisable(true);
         menuControlButtons.forEach((control -> control.setDisable(true)));
         addJobButton.setDisable(true);
+        estimateExecutor.execute(() -> {
+            Map<BaseWorkflow, Map<FileStore, Long>> perJob = new HashMap<>();
+            List<SizeEstimator.Requirement> requirements = SizeEstimator.estimate(runnable, concurrentJobs, perJob);
+            Platform.runLater(() -> startJobs(requirements, perJob));
+        });
+    }
+
+    private void startJobs(List<SizeEstimator.Requirement> requirements,
+                           Map<BaseWorkflow, Map<FileStore, Long>> perJob) {
+        for (SizeEstimator.Requirement requirement : requirements) {
+            LOGGER.info("Estimated %,dMB needed on %s, %,dMB free".formatted(
+                    requirement.neededBytes() / 1048576, requirement.drive(), requirement.usableBytes() / 1048576));
+            if (requirement.usableBytes() >= requirement.neededBytes()) continue;
+            Optional<ButtonType> result = warnLowDriveSpace(
+                    requirement.drive(), requirement.neededBytes(), requirement.usableBytes());
+            if (result.isPresent() && result.get() == ButtonType.YES){
+                LOGGER.info("User opted to continue despite disk space warning");
+            } else {
+                LOGGER.error("User aborted conversions in response to disk space warning");
+                updateStatus("Run cancelled");
+                menuControlButtons.forEach((control -> control.setDisable(false)));
+                addJobButton.setDisable(false);
+                updateRunButton();
+                return;
+            }
+        }
+
         LOGGER.info("Beginning file conversion...\n");
         updateStatus("Beginning file conversion");
         for (BaseWorkflow job: jobList.getItems()) {
             if (job.canRun()) {
+                // Saves the scheduler estimating the job again
+                Map<FileStore, Long> needed = perJob.get(job);
+                if (needed != null) scheduler.setEstimate(job, needed);
                 job.queueJob();
             }
         }
     }
 
-    private static Optional<ButtonType> warnLowDriveSpace(Path drive, long neededSpace, long freeSpace) {
+    private static Optional<ButtonType> warnLowDriveSpace(String drive, long neededSpace, long freeSpace) {
         Alert alert = new Alert(Alert.AlertType.WARNING,
                 String.format("""
                         Output files from conversion may be larger than available disk space on drive %s
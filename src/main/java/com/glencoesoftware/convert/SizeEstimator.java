@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.glencoesoftware.convert.tasks.BaseTask;
+import com.glencoesoftware.convert.tasks.progress.OutputSizeTracker;
+import com.glencoesoftware.convert.workflows.BaseWorkflow;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Estimates how much disk space a batch of jobs will need on each drive before it's started.
+// Input size covers every file of a dataset (or the whole directory for Zarr inputs). Each task scales its input
+// size, using the pyramid overhead and a compression ratio learned from earlier jobs with the same settings.
+// Final outputs stay on their drive for good, while intermediates only exist while their job runs, so only the
+// largest intermediates of the jobs which can run at once are counted.
+public class SizeEstimator {
+
+    private static final ch.qos.logback.classic.Logger LOGGER =
+            (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(SizeEstimator.class);
+
+    // Weight of the newest job when updating a learned ratio
+    private static final double learningRate = 0.3;
+
+    // Space needed on one drive by the batch
+    public record Requirement(String drive, long neededBytes, long usableBytes) {}
+
+    private static SizeEstimator instance = null;
+
+    private final File historyFile;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Double> ratios = new HashMap<>();
+
+    SizeEstimator(File historyFile) {
+        this.historyFile = historyFile;
+        if (!historyFile.exists()) return;
+        try {
+            JsonNode root = mapper.readTree(historyFile);
+            Iterator<Map.Entry<String, JsonNode>> fields = root.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (field.getValue().isNumber()) ratios.put(field.getKey(), field.getValue().asDouble());
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read output size history - " + e);
+        }
+    }
+
+    public static synchronized SizeEstimator getDefault() {
+        if (instance == null) instance = new SizeEstimator(
+                new File(new File(System.getProperty("user.home"), ".ngff-converter"), "size-history.json"));
+        return instance;
+    }
+
+    // Size of everything making up a job's input dataset
+    public static long inputSize(BaseWorkflow job) {
+        long total = 0;
+        for (String member : job.getDatasetFiles()) total += sizeOf(new File(member));
+        return total;
+    }
+
+    public static long sizeOf(File file) {
+        if (!file.isDirectory()) return file.length();
+        try {
+            return FileUtils.sizeOfDirectory(file);
+        } catch (IllegalArgumentException | UncheckedIOException e) {
+            LOGGER.debug("Unable to measure %s - %s".formatted(file.getName(), e));
+            return 0;
+        }
+    }
+
+    // Total size of a pyramid relative to its full resolution, each level halves both X and Y.
+    // Without a fixed number of resolutions the pyramid continues until the minimum size, which approaches 4/3.
+    public static double pyramidFactor(Integer resolutions) {
+        if (resolutions == null || resolutions <= 0) return 4.0 / 3;
+        double factor = 0;
+        for (int level = 0; level < resolutions; level++) factor += Math.pow(0.25, level);
+        return factor;
+    }
+
+    // Output bytes per (expanded) input byte for the supplied kind of conversion, 1 until we've seen one
+    public synchronized double getRatio(String key) {
+        return ratios.getOrDefault(key, 1.0);
+    }
+
+    // Learn from a finished conversion. Expansion is the growth already modelled by the caller (e.g. pyramid levels).
+    public synchronized void record(String key, long inputBytes, long outputBytes, double expansion) {
+        if (inputBytes <= 0 || outputBytes <= 0 || expansion <= 0) return;
+        double observed = outputBytes / (inputBytes * expansion);
+        Double previous = ratios.get(key);
+        double updated = previous == null ? observed : previous + learningRate * (observed - previous);
+        ratios.put(key, updated);
+        LOGGER.debug("Output size ratio for %s is now %.2f".formatted(key, updated));
+        save();
+    }
+
+    private void save() {
+        ObjectNode root = mapper.createObjectNode();
+        for (Map.Entry<String, Double> entry : ratios.entrySet()) root.put(entry.getKey(), entry.getValue());
+        File temp = new File(historyFile.getParentFile(), historyFile.getName() + ".tmp");
+        try {
+            Files.createDirectories(historyFile.getParentFile().toPath());
+            mapper.writeValue(temp, root);
+            Files.move(temp.toPath(), historyFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to save output size history - " + e);
+        }
+    }
+
+    // Space required on each drive to run the supplied jobs, with up to concurrentJobs running at once.
+    // What each job needs while it runs is added to perJob, so the scheduler doesn't have to work it out again.
+    public static List<Requirement> estimate(List<BaseWorkflow> jobs, int concurrentJobs,
+                                             Map<BaseWorkflow, Map<FileStore, Long>> perJob) {
+        Map<FileStore, Long> persistent = new LinkedHashMap<>();
+        Map<FileStore, List<Long>> transientPerJob = new LinkedHashMap<>();
+        for (BaseWorkflow job : jobs) {
+            Map<FileStore, Long> jobPersistent = new HashMap<>();
+            Map<FileStore, Long> jobTransient = new HashMap<>();
+            addJob(job, jobPersistent, jobTransient);
+            jobPersistent.forEach((store, size) -> persistent.merge(store, size, Long::sum));
+            jobTransient.forEach((store, size) ->
+                    transientPerJob.computeIfAbsent(store, s -> new ArrayList<>()).add(size));
+            Map<FileStore, Long> needed = new HashMap<>(jobPersistent);
+            jobTransient.forEach((store, size) -> needed.merge(store, size, Long::sum));
+            needed.remove(null);
+            perJob.put(job, needed);
+        }
+
+        Map<FileStore, Long> needed = new LinkedHashMap<>(persistent);
+        transientPerJob.forEach((store, sizes) -> {
+            sizes.sort(Comparator.reverseOrder());
+            long peak = 0;
+            for (int i = 0; i < Math.min(Math.max(1, concurrentJobs), sizes.size()); i++) peak += sizes.get(i);
+            needed.merge(store, peak, Long::sum);
+        });
+
+        List<Requirement> requirements = new ArrayList<>();
+        for (Map.Entry<FileStore, Long> entry : needed.entrySet()) {
+            if (entry.getKey() == null) continue;
+            try {
+                requirements.add(new Requirement(entry.getKey().toString(), entry.getValue(),
+                        entry.getKey().getUsableSpace()));
+            } catch (IOException e) {
+                LOGGER.warn("Unable to check free space on %s - %s".formatted(entry.getKey(), e));
+            }
+        }
+        return requirements;
+    }
+
+    // Space a single job needs on each drive while it runs
+    public static Map<FileStore, Long> estimateJob(BaseWorkflow job) {
+        Map<FileStore, Long> needed = new HashMap<>();
+        addJob(job, needed, needed);
+        needed.remove(null);
+        return needed;
+    }
+
+    // Space the outputs of a running job have taken up so far, as reported by its tasks. Doesn't touch the disk.
+    public static Map<FileStore, Long> writtenByJob(BaseWorkflow job) {
+        Map<FileStore, Long> used = new HashMap<>();
+        for (int i = 0; i < job.tasks.size() - 1; i++) {
+            OutputSizeTracker tracker = job.tasks.get(i).getOutputTracker();
+            if (tracker == null || tracker.getStore() == null) continue;
+            used.merge(tracker.getStore(), tracker.getWrittenBytes(), Long::sum);
+        }
+        return used;
+    }
+
+    // Add a job's final output size to persistent and its intermediates to jobTransient
+    private static void addJob(BaseWorkflow job, Map<FileStore, Long> persistent, Map<FileStore, Long> jobTransient) {
+        if (ConversionIndex.isEnabled()
+                && ConversionIndex.getDefault().isUpToDate(job, ConversionIndex.getFingerprint(job))) return;
+        long bytes = inputSize(job);
+        FileStore finalStore = storeOf(job.finalOutput);
+        // The last task is Output, which moves the previous task's result into place
+        int producers = job.tasks.size() - 1;
+        for (int i = 0; i < producers; i++) {
+            BaseTask task = job.tasks.get(i);
+            long scratch = task.estimateScratchSize(bytes);
+            if (scratch > 0) jobTransient.merge(storeOf(task.getScratchDirectory()), scratch, Long::sum);
+            bytes = task.estimateOutputSize(bytes);
+            if (bytes <= 0 || task.getOutput() == null) continue;
+            FileStore store = storeOf(task.getOutput());
+            if (i == producers - 1) {
+                // Renamed into place on the same drive, otherwise copied across
+                persistent.merge(finalStore, bytes, Long::sum);
+                if (store != null && !store.equals(finalStore)) jobTransient.merge(store, bytes, Long::sum);
+            } else {
+                jobTransient.merge(store, bytes, Long::sum);
+            }
+        }
+    }
+
+    // Drive holding the supplied path, which may not exist yet
+    public static FileStore storeOf(File file) {
+        File existing = file == null ? null : file.getAbsoluteFile();
+        while (existing != null && !existing.exists()) existing = existing.getParentFile();
+        if (existing == null) return null;
+        try {
+            return Files.getFileStore(existing.toPath());
+        } catch (IOException e) {
+            LOGGER.debug("Unable to find drive for %s - %s".formatted(file, e));
+            return null;
+        }
+    }
+}
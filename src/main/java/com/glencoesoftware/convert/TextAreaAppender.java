@@ -9,6 +9,7 @@ package com.glencoesoftware.convert;
 import ch.qos.logback.core.OutputStreamAppender;
 
 import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 
 public class TextAreaAppender<E> extends OutputStreamAppender<E> {
@@ -37,5 +38,11 @@ public class TextAreaAppender<E> extends OutputStreamAppender<E> {
         void setOutputStream(OutputStream outputStream) {
             this.out = outputStream;
         }
+
+        // FilterOutputStream would otherwise pass encoded events on one byte at a time
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
     }
 }
\ No newline at end of file
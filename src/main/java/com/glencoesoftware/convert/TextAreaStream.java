@@ -9,65 +9,142 @@ package com.glencoesoftware.convert;
 
 import javafx.application.Platform;
 import javafx.scene.control.TextArea;
-import org.apache.commons.lang3.StringUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 // We want to capture stdout from workflows into a JavaFX text area.
 // We could write the stream directly, but this creates excessive GUI updates.
 // Instead, we'll capture lines into a temporary buffer and flush to console.
 // Note that Trace-level logs can print thousands of lines in a single operation.
 // We only show the last 1000 lines in the GUI.
+// Completed lines are held in a fixed size ring until the FX thread collects them, so a burst of logging can only
+// ever queue lineLimit lines. Line counts are tracked as lines arrive rather than by re-splitting the text.
+// Until a text area is attached (the log window is opened) lines simply accumulate in the ring.
 public class TextAreaStream extends OutputStream
 {
-    private final TextArea output;
-    private final StringBuilder buffer;
+    private volatile TextArea output = null;
     private final int lineLimit = 1000;
-    private boolean locked = false;
 
-    public TextAreaStream(TextArea logBox) {
-        this.output = logBox;
-        this.buffer = new StringBuilder();
+    // Written by logging threads, guarded by this
+    private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream(256);
+    // Allocated on the first completed line, most jobs never log before the window is opened
+    private String[] pending = null;
+    private int pendingStart = 0;
+    private int pendingCount = 0;
+    private final AtomicBoolean updateQueued = new AtomicBoolean(false);
+
+    // Lengths of the lines currently displayed (including their newline), FX thread only
+    private final ArrayDeque<Integer> displayedLines = new ArrayDeque<>();
+
+    // Start displaying in the supplied text area, beginning with anything logged so far. FX thread only.
+    public void attach(TextArea logBox) {
+        output = logBox;
+        display(takePending());
     }
 
     @Override
-        public void write(final int i) { buffer.append((char) i); }
+    public synchronized void write(final int i) {
+        if (i == '\n') completeLine();
+        else partialLine.write(i);
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        int lineStart = offset;
+        for (int i = offset; i < end; i++) {
+            if (bytes[i] == '\n') {
+                partialLine.write(bytes, lineStart, i - lineStart);
+                completeLine();
+                lineStart = i + 1;
+            }
+        }
+        partialLine.write(bytes, lineStart, end - lineStart);
+    }
+
+    // Move the partial line into the ring, dropping the oldest pending line if it is full
+    private void completeLine() {
+        String line = partialLine.toString(StandardCharsets.UTF_8) + "\n";
+        partialLine.reset();
+        if (pending == null) pending = new String[lineLimit];
+        int slot = (pendingStart + pendingCount) % lineLimit;
+        pending[slot] = line;
+        if (pendingCount < lineLimit) pendingCount++;
+        else pendingStart = (pendingStart + 1) % lineLimit;
+    }
+
+    // Remove and return everything waiting to be displayed
+    private synchronized String[] takePending() {
+        String[] lines = new String[pendingCount];
+        for (int i = 0; i < pendingCount; i++) {
+            int slot = (pendingStart + i) % lineLimit;
+            lines[i] = pending[slot];
+            pending[slot] = null;
+        }
+        pendingStart = 0;
+        pendingCount = 0;
+        return lines;
+    }
 
     @Override
     public void flush() {
-        if (this.locked) {
+        // Nothing to update until the log window has been opened
+        if (output == null) return;
+        if (!updateQueued.compareAndSet(false, true)) {
             // A UI update event already exists in the queue.
             return;
-        } else {
-            this.locked = true;
         }
         Platform.runLater(() -> {
-            String newData = this.buffer.toString();
-            int newLines = newData.split("\n").length;
-            int existingLines = output.getText().split("\n").length;
-            if (newLines > this.lineLimit) {
-                int idx = StringUtils.ordinalIndexOf(newData, "\n", newLines - this.lineLimit);
-                output.deleteText(0, output.getText().length());
-                output.appendText(newData.substring(idx));
-            } else if (newLines + existingLines > this.lineLimit) {
-                int idx = StringUtils.ordinalIndexOf(output.getText(), "\n", existingLines - this.lineLimit);
-                output.deleteText(0, idx+1);
-                output.appendText(this.buffer.toString());
-            } else {
-                output.appendText(this.buffer.toString());
-            }
-
-            this.buffer.setLength(0);
-            this.locked = false;
+            updateQueued.set(false);
+            display(takePending());
         });
     }
 
     public void forceFlush() {
-        Platform.runLater(() -> {
-            output.appendText(this.buffer.toString());
-            this.buffer.setLength(0);
-            this.locked = false;
-        });
+        synchronized (this) {
+            if (partialLine.size() > 0) completeLine();
+        }
+        if (output == null) return;
+        Platform.runLater(() -> display(takePending()));
+    }
+
+    // Append lines to the text area, trimming from the top to stay within lineLimit. FX thread only.
+    private void display(String[] lines) {
+        if (lines.length == 0) return;
+        StringBuilder newText = new StringBuilder();
+        for (String line : lines) {
+            newText.append(line);
+            displayedLines.add(line.length());
+        }
+        int excess = displayedLines.size() - lineLimit;
+        if (excess >= displayedLines.size() - lines.length) {
+            // Everything previously shown is being pushed out, replace it outright
+            while (displayedLines.size() > lineLimit) displayedLines.remove();
+            output.setText(newText.substring(newText.length() - displayedTextLength()));
+            output.positionCaret(output.getLength());
+            return;
+        }
+        if (excess > 0) {
+            int removeChars = 0;
+            for (int i = 0; i < excess; i++) removeChars += displayedLines.remove();
+            output.deleteText(0, removeChars);
+        }
+        output.appendText(newText.toString());
     }
-}
 
+    private int displayedTextLength() {
+        int length = 0;
+        for (int lineLength : displayedLines) length += lineLength;
+        return length;
+    }
+
+    // Empty the text area. FX thread only.
+    public void clear() {
+        displayedLines.clear();
+        output.clear();
+    }
+}
@@ -390,6 +390,8 @@ public class ConfigureJobDialog {
         if (selectedFile == null) return;
         try {
             currentTask.parent.loadSettings(selectedFile);
+            // Settings are loaded into the job itself, so refresh the widgets from it
+            currentTask.parent.prepareGUI();
             currentTask.parent.controller.updateStatus("Imported settings successfully");
         } catch (IOException e) {
             currentTask.parent.controller.updateStatus("Failed to import settings");
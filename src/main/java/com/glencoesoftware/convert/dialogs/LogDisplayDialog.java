@@ -6,16 +6,11 @@
  */
 package com.glencoesoftware.convert.dialogs;
 
-import ch.qos.logback.classic.LoggerContext;
-import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
-import ch.qos.logback.classic.spi.ILoggingEvent;
-import com.glencoesoftware.convert.TextAreaAppender;
 import com.glencoesoftware.convert.TextAreaStream;
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextArea;
 import javafx.scene.layout.HBox;
-import org.slf4j.LoggerFactory;
 
 import java.awt.*;
 import java.awt.datatransfer.StringSelection;
@@ -28,31 +23,14 @@ public class LogDisplayDialog {
     public Label title;
     public HBox topPane;
 
-    private TextAreaAppender<ILoggingEvent> logBoxAppender;
-
     public void setTitle(String newTitle) {
         title.setText(newTitle);
     }
 
-    @FXML
-    public void initialize() {
-        stream = new TextAreaStream(logBox);
-    }
-
-    public TextAreaAppender<ILoggingEvent> getAppender() {
-        if (logBoxAppender == null) {
-            LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
-            PatternLayoutEncoder ple = new PatternLayoutEncoder();
-            ple.setPattern("%date [%thread] %-5level %logger{36} - %msg%n");
-            ple.setContext(lc);
-            ple.start();
-            logBoxAppender = new TextAreaAppender<>();
-            logBoxAppender.setChildOutputStream(stream);
-            logBoxAppender.setEncoder(ple);
-            logBoxAppender.setContext(lc);
-            logBoxAppender.start();
-        }
-        return logBoxAppender;
+    // Display a job's log stream in this window, including anything it has logged already
+    public void attach(TextAreaStream jobStream) {
+        stream = jobStream;
+        stream.attach(logBox);
     }
 
     @FXML
@@ -67,7 +45,7 @@ public class LogDisplayDialog {
 
     @FXML
     public void clearLogs() {
-        logBox.clear();
+        stream.clear();
     }
 
 }
@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert.tables;
+
+import com.glencoesoftware.convert.JobState;
+import com.glencoesoftware.convert.workflows.BaseWorkflow;
+import javafx.application.Platform;
+import javafx.beans.value.ChangeListener;
+import javafx.scene.control.TableCell;
+
+// Job table cell which watches the status of the job it currently displays, so that a status change only
+// re-renders that job's cells instead of the whole table.
+public abstract class JobBoundTableCell extends TableCell<BaseWorkflow, Void> {
+
+    private BaseWorkflow bound = null;
+
+    // Job status is set from worker threads, rendering has to happen on the FX thread
+    private final ChangeListener<JobState.status> statusWatcher = (obs, oldStatus, newStatus) -> {
+        if (Platform.isFxApplicationThread()) render();
+        else Platform.runLater(this::render);
+    };
+
+    @Override
+    public void updateItem(Void item, boolean empty) {
+        super.updateItem(item, empty);
+        if (bound != null) bound.status.removeListener(statusWatcher);
+        bound = null;
+        if (empty || getIndex() < 0 || getIndex() >= getTableView().getItems().size()) {
+            setGraphic(null);
+            return;
+        }
+        bound = getTableView().getItems().get(getIndex());
+        bound.status.addListener(statusWatcher);
+        render();
+    }
+
+    private void render() {
+        if (bound != null) render(bound);
+    }
+
+    // Update the cell's contents to match the job. FX thread only.
+    protected abstract void render(BaseWorkflow job);
+}
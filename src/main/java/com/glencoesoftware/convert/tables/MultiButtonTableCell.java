@@ -22,7 +22,7 @@ import java.io.IOException;
 import java.util.Arrays;
 
 
-public class MultiButtonTableCell extends TableCell<BaseWorkflow, Void> {
+public class MultiButtonTableCell extends JobBoundTableCell {
 
     private final HBox container;
     private final Button showLog = new Button();
@@ -105,7 +105,6 @@ public class MultiButtonTableCell extends TableCell<BaseWorkflow, Void> {
         resetJob.setOnAction(evt -> {
             BaseWorkflow subject = getTableRow().getItem();
             subject.resetJob();
-            getTableView().refresh();
         });
 
         showFile.setGraphic(openDirIcon);
@@ -142,12 +141,9 @@ public class MultiButtonTableCell extends TableCell<BaseWorkflow, Void> {
     }
 
     @Override
-    public void updateItem(Void item, boolean empty) {
-        super.updateItem(item, empty);
-        setGraphic(empty ? null : container);
-        if (empty) return;
+    protected void render(BaseWorkflow current) {
+        setGraphic(container);
         this.container.getChildren().clear();
-        BaseWorkflow current = getTableView().getItems().get(getIndex());
         switch (current.status.get()) {
             case COMPLETED -> this.container.getChildren().addAll(showFile, showLog, removeJob);
             case RUNNING, QUEUED -> this.container.getChildren().addAll(stopJob, showLog, removeJobDisabled);
@@ -19,6 +19,7 @@ public class TaskStatusTableCell extends TableCell<BaseTask, Void> {
     private final Tooltip labelTooltip = new Tooltip("Ready");
 
     private final HBox container = new HBox();
+    private final JobState.IconCache icons = new JobState.IconCache(15);
 
     final ProgressBar stoppingBar = new ProgressBar();
     final Label stoppingLabel = new Label("Stopping");
@@ -45,24 +46,24 @@ public class TaskStatusTableCell extends TableCell<BaseTask, Void> {
         mainLabel.setText(current.getStatusString());
         switch (current.status) {
             case COMPLETED -> {
-                mainLabel.setGraphic(JobState.getStatusIcon(current.status, 15));
+                mainLabel.setGraphic(icons.get(current.status));
                 labelTooltip.setText("Task successful");
                 container.getChildren().add(mainLabel);
             }
             case RUNNING -> container.getChildren().addAll(current.getProgressWidget());
             case STOPPING -> container.getChildren().addAll(stoppingWidget);
             case WARNING -> {
-                mainLabel.setGraphic(JobState.getStatusIcon(current.status, 15));
+                mainLabel.setGraphic(icons.get(current.status));
                 labelTooltip.setText(current.warningMessage);
                 container.getChildren().add(mainLabel);
             }
             case FAILED -> {
                 labelTooltip.setText("Task Failed");
-                mainLabel.setGraphic(JobState.getStatusIcon(current.status, 15));
+                mainLabel.setGraphic(icons.get(current.status));
                 container.getChildren().add(mainLabel);
             }
             default -> {
-                mainLabel.setGraphic(JobState.getStatusIcon(current.status, 15));
+                mainLabel.setGraphic(icons.get(current.status));
                 container.getChildren().add(mainLabel);
             }
         }
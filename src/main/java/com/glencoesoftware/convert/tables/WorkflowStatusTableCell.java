@@ -9,29 +9,28 @@ package com.glencoesoftware.convert.tables;
 import com.glencoesoftware.convert.JobState;
 import com.glencoesoftware.convert.workflows.BaseWorkflow;
 import javafx.scene.control.Label;
-import javafx.scene.control.TableCell;
 import javafx.scene.control.Tooltip;
 
-public class WorkflowStatusTableCell extends TableCell<BaseWorkflow, Void> {
+public class WorkflowStatusTableCell extends JobBoundTableCell {
 
     private final Label mainLabel = new Label();
+    private final Tooltip statusTooltip = new Tooltip();
+    private final JobState.IconCache icons = new JobState.IconCache(15);
 
     {
         mainLabel.getStyleClass().add("status-cell");
     }
 
     @Override
-    public void updateItem(Void item, boolean empty) {
-        super.updateItem(item, empty);
-        setGraphic(empty ? null : this.mainLabel);
-        if (empty) return;
-        BaseWorkflow current = getTableView().getItems().get(getIndex());
+    protected void render(BaseWorkflow current) {
+        setGraphic(this.mainLabel);
         this.mainLabel.setText(current.getStatusString());
-        this.mainLabel.setGraphic(JobState.getStatusIcon(current.status.get(),15));
+        this.mainLabel.setGraphic(icons.get(current.status.get()));
         if (!current.statusText.isEmpty()) {
-            this.mainLabel.setTooltip(new Tooltip(current.statusText));
+            statusTooltip.setText(current.statusText);
+            this.mainLabel.setTooltip(statusTooltip);
         } else {
             this.mainLabel.setTooltip(null);
         }
     }
-}
\ No newline at end of file
+}
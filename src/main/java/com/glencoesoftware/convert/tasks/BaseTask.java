@@ -11,6 +11,8 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.glencoesoftware.convert.App;
 import com.glencoesoftware.convert.JobState;
+import com.glencoesoftware.convert.SizeEstimator;
+import com.glencoesoftware.convert.tasks.progress.OutputSizeTracker;
 import com.glencoesoftware.convert.workflows.BaseWorkflow;
 import javafx.geometry.Pos;
 import javafx.scene.Node;
@@ -42,10 +44,11 @@ public abstract class BaseTask {
     public File output = null;
     public String outputName = "";
     public String warningMessage = "";
-    protected final ProgressBar progressBar = new ProgressBar();
-    protected final Label progressLabel = new Label("Preparing");
-    protected final Label timerLabel = new Label("");
-    protected final VBox progressContainer = new VBox(progressLabel, progressBar, timerLabel);
+    // Progress widgets are only created when running with a GUI, headless tasks leave these null
+    protected ProgressBar progressBar;
+    protected Label progressLabel;
+    protected Label timerLabel;
+    protected VBox progressContainer;
 
     abstract public String getName();
 
@@ -53,6 +56,11 @@ public abstract class BaseTask {
         this.parent = parent;
         // We want some basic log messages to always show
         LOGGER.setLevel(Level.INFO);
+        if (parent.isHeadless()) return;
+        progressBar = new ProgressBar();
+        progressLabel = new Label("Preparing");
+        timerLabel = new Label("");
+        progressContainer = new VBox(progressLabel, progressBar, timerLabel);
         progressContainer.setAlignment(Pos.CENTER);
         progressContainer.setSpacing(1);
         progressLabel.setTextAlignment(TextAlignment.CENTER);
@@ -84,6 +92,29 @@ public abstract class BaseTask {
         return this.output;
     }
 
+    // Progress of the output written by the current run, read by the scheduler's free space check
+    protected OutputSizeTracker outputTracker = null;
+
+    public OutputSizeTracker getOutputTracker() {
+        return outputTracker;
+    }
+
+    // Forget what an earlier run wrote
+    public void clearOutputTracker() {
+        outputTracker = null;
+    }
+
+    // Start tracking a new run's output, given the size of its input
+    protected OutputSizeTracker trackOutput(long inputBytes) {
+        outputTracker = new OutputSizeTracker(SizeEstimator.storeOf(output), estimateOutputSize(inputBytes));
+        return outputTracker;
+    }
+
+    // Whether this task's output is complete and can be picked up by a later attempt at the job
+    public boolean hasReusableOutput() {
+        return false;
+    }
+
     // Set output to be in the directory specified
     abstract public void calculateOutput(String basePath);
 
@@ -94,6 +125,22 @@ public abstract class BaseTask {
     // make last minute changes, etc.
     public void prepareToRun() {}
 
+    // Number of worker threads this task will use while running. Used by the scheduler to decide how many jobs
+    // can run at once.
+    public int getMaxWorkers() { return 1; }
+
+    // Whether the task will use as many workers as the scheduler can spare, beyond getMaxWorkers
+    public boolean adaptsWorkers() { return false; }
+
+    // Expected size of this task's output, given the expected size of its input. Used for the disk space check.
+    public long estimateOutputSize(long inputBytes) { return inputBytes; }
+
+    // Space the task needs outside its output while it runs (e.g. an unpacked copy of its input), and the directory
+    // it goes in. Removed again before the task finishes.
+    public long estimateScratchSize(long inputBytes) { return 0; }
+
+    public File getScratchDirectory() { return null; }
+
     // Recalculate the task's status. Check for issues in settings, etc.
     abstract public void updateStatus();
 
@@ -128,8 +175,15 @@ public abstract class BaseTask {
     // Clear any loaded settings and apply the defaults. Primarily needed to call reset() methods on executors.
     abstract public void resetToDefaults();
 
-    // Clear any loaded settings and apply the defaults. Primarily needed to call reset() methods on executors.
-    abstract public void exportSettings(JsonGenerator generator) throws IOException;
+    // Apply the displayed settings, then write them out
+    public void exportSettings(JsonGenerator generator) throws IOException {
+        // Ensure displayed settings are what gets saved
+        applySettings();
+        writeSettings(generator);
+    }
+
+    // Write the settings currently applied to the task engine. Doesn't touch any widgets.
+    abstract public void writeSettings(JsonGenerator generator) throws IOException;
 
     // Clear any loaded settings and apply the defaults. Primarily needed to call reset() methods on executors.
     abstract public void importSettings(JsonNode mainNode);
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert.tasks;
+
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.Memoizer;
+import loci.formats.in.DefaultMetadataOptions;
+import loci.formats.in.MetadataLevel;
+
+import java.io.File;
+import java.io.IOException;
+
+// Picks Zarr chunk dimensions which line up with the source's own tiles, so that writing a chunk reads whole source
+// tiles rather than fragments of several. Chunks stay near the bioformats2raw default of 1024x1024 and below
+// maxChunkBytes. Thin chunks are stacked in Z until they reach minChunkBytes. Sizes are kept to multiples of 16, as
+// raw2ometiff reuses the chunk size as the TIFF tile size.
+public class ChunkSizeTuner {
+
+    public record Chunking(int width, int height, int depth, String source) {}
+
+    // Dimensions of the input's largest series
+    public record SourceLayout(int tileWidth, int tileHeight, int sizeX, int sizeY, int sizeZ, int bytesPerPixel,
+                               int samplesPerPixel, String pixelType) {}
+
+    private static final int desiredTileSize = 1024;
+    private static final long maxChunkBytes = 4 * 1024 * 1024;
+    private static final long minChunkBytes = 1024 * 1024;
+    private static final int maxChunkDepth = 64;
+    private static final int tileMultiple = 16;
+
+    private ChunkSizeTuner() {}
+
+    // Inspect the largest series of the input. Throws if the input can't be read.
+    // With a memo directory, a memo saved by an earlier conversion is loaded instead of opening the input. No memo is
+    // written here, as the converter's reader is set up differently and saves its own.
+    public static SourceLayout inspect(File input, File memoDirectory) throws IOException, FormatException {
+        ImageReader imageReader = new ImageReader();
+        imageReader.setMetadataOptions(new DefaultMetadataOptions(MetadataLevel.MINIMUM));
+        try (IFormatReader reader = memoDirectory == null ? imageReader
+                : new Memoizer(imageReader, Long.MAX_VALUE, memoDirectory)) {
+            reader.setFlattenedResolutions(false);
+            reader.setId(input.getAbsolutePath());
+            int largest = 0;
+            long largestPixels = -1;
+            for (int s = 0; s < reader.getSeriesCount(); s++) {
+                reader.setSeries(s);
+                long pixels = (long) reader.getSizeX() * reader.getSizeY() * reader.getSizeZ();
+                if (pixels > largestPixels) {
+                    largest = s;
+                    largestPixels = pixels;
+                }
+            }
+            reader.setSeries(largest);
+            return new SourceLayout(reader.getOptimalTileWidth(), reader.getOptimalTileHeight(), reader.getSizeX(),
+                    reader.getSizeY(), reader.getSizeZ(), FormatTools.getBytesPerPixel(reader.getPixelType()),
+                    reader.getRGBChannelCount(), FormatTools.getPixelTypeString(reader.getPixelType()));
+        }
+    }
+
+    public static Chunking tune(SourceLayout layout) {
+        return choose(layout.tileWidth(), layout.tileHeight(), layout.sizeX(), layout.sizeY(), layout.sizeZ(),
+                layout.bytesPerPixel(), "%dx%d %s tiles, %d Z".formatted(layout.tileWidth(), layout.tileHeight(),
+                        layout.pixelType(), layout.sizeZ()));
+    }
+
+    private static Chunking choose(int tileWidth, int tileHeight, int sizeX, int sizeY, int sizeZ, int bytesPerPixel,
+                                   String source) {
+        int width = align(tileWidth, sizeX);
+        int height = align(tileHeight, sizeY);
+        int stepX = tileWidth > 0 && tileWidth < width ? tileWidth : 1;
+        int stepY = tileHeight > 0 && tileHeight < height ? tileHeight : 1;
+        // Shrink the longer side, keeping alignment where possible
+        while ((long) width * height * bytesPerPixel > maxChunkBytes
+                && (width > tileMultiple || height > tileMultiple)) {
+            if (width >= height) width = shrink(width, stepX);
+            else height = shrink(height, stepY);
+        }
+        long planeBytes = (long) width * height * bytesPerPixel;
+        int depth = 1;
+        if (sizeZ > 1 && planeBytes > 0 && planeBytes < minChunkBytes)
+            depth = (int) Math.min(Math.min(sizeZ, maxChunkDepth), minChunkBytes / planeBytes);
+        return new Chunking(width, height, depth, source);
+    }
+
+    // Largest multiple of the source tile near the desired size, or the source tile itself if it's bigger
+    private static int align(int sourceTile, int extent) {
+        // Untiled source (e.g. whole rows or planes), nothing to align with
+        if (sourceTile <= 0 || sourceTile >= extent) return desiredTileSize;
+        int aligned;
+        if (sourceTile >= desiredTileSize) aligned = sourceTile <= 2 * desiredTileSize ? sourceTile : desiredTileSize;
+        else aligned = (desiredTileSize / sourceTile) * sourceTile;
+        return aligned % tileMultiple == 0 ? aligned : desiredTileSize;
+    }
+
+    private static int shrink(int size, int step) {
+        if (step > 1 && size - step >= step && step % tileMultiple == 0) return size - step;
+        return Math.max(tileMultiple, size / 2 / tileMultiple * tileMultiple);
+    }
+}
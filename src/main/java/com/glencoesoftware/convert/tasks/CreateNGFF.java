@@ -6,14 +6,21 @@
  */
 package com.glencoesoftware.convert.tasks;
 
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.glencoesoftware.bioformats2raw.Converter;
 import com.glencoesoftware.bioformats2raw.Downsampling;
 import com.glencoesoftware.bioformats2raw.ZarrCompression;
 import com.glencoesoftware.convert.App;
+import com.glencoesoftware.convert.CleanupService;
 import com.glencoesoftware.convert.JobState;
+import com.glencoesoftware.convert.SizeEstimator;
+import com.glencoesoftware.convert.tasks.progress.CompositeProgressListener;
+import com.glencoesoftware.convert.tasks.progress.ConversionLedger;
 import com.glencoesoftware.convert.tasks.progress.ConverterProgressListener;
+import com.glencoesoftware.convert.tasks.progress.MetricsRecorder;
+import com.glencoesoftware.convert.tasks.progress.OutputSizeTracker;
 import com.glencoesoftware.convert.workflows.BaseWorkflow;
 import com.google.common.base.Splitter;
 import javafx.beans.property.BooleanProperty;
@@ -29,13 +36,16 @@ import javafx.scene.control.cell.CheckBoxListCell;
 import javafx.scene.layout.*;
 import javafx.stage.FileChooser;
 import ome.xml.model.enums.DimensionOrder;
+import org.apache.commons.io.FileUtils;
 import picocli.CommandLine;
 
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
@@ -58,7 +68,8 @@ public class CreateNGFF extends BaseTask{
         COMPACT_DIMENSIONS, DIMENSION_ORDER, DOWNSAMPLING, MIN_IMAGE_SIZE, REUSE_RES, CHUNK_DEPTH, NO_TILES,
         SCALE_FORMAT_STRING, SCALE_FORMAT_CSV, FILL_VALUE, BLOSC_CNAME, BLOSC_CLEVEL, BLOSC_BLOCKSIZE, BLOSC_SHUFFLE,
         ZLIB_LEVEL, MAX_CACHED_TILES, CALC_MIN_MAX, HCS, NESTED, OME_META, NO_ROOT, PYRAMID_NAME, KEEP_MEMOS, MEMO_DIR,
-        READER_OPTS, OUTPUT_OPTS, EXTRA_READERS, WRITE_METADATA
+        READER_OPTS, OUTPUT_OPTS, EXTRA_READERS, WRITE_METADATA, RESUME, AUTO_CHUNKS,
+        AUTO_RESOURCES, ZIP_OUTPUT
     }
 
 
@@ -66,46 +77,60 @@ public class CreateNGFF extends BaseTask{
 
     private static final ArrayList<Node> standardSettings = new ArrayList<>();
     private static final ArrayList<Node> advancedSettings = new ArrayList<>();
-    private static final ChoiceBox<String> logLevel;
-    private static final TextField maxWorkers;
-    private static final ChoiceBox<ZarrCompression> compression;
-    private static final TextField tileHeight;
-    private static final TextField tileWidth;
-    private static final TextField resolutions;
-    private static final TextField series;
-    private static final ToggleSwitch compactDimensions;
-    private static final ChoiceBox<DimensionOrder> dimensionOrder;
-    private static final ChoiceBox<Downsampling> downsampling;
-    private static final TextField minImageSize;
-    private static final ToggleSwitch useExistingResolutions;
-    private static final TextField chunkDepth;
-    private static final TextField scaleFormatString;
-    private static final TextField scaleFormatCSV;
-    private static final TextField fillValue;
-    private static final VBox compressionPropertiesBox;
-    private static final ChoiceBox<String> compressorBloscCname;
-    private static final TextField compressorBloscClevel;
-    private static final TextField compressorBloscBlockSize;
-    private static final ChoiceBox<String> compressorBloscShuffle;
-    private static final TextField compressorZlibLevel;
-
-    private static final TextField maxCachedTiles;
-    private static final ToggleSwitch disableMinMax;
-    private static final ToggleSwitch disableHCS;
-    private static final ToggleSwitch nested;
-    private static final ToggleSwitch originalMeta;
-    private static final ToggleSwitch noOMEMeta;
-    private static final ToggleSwitch noRoot;
-    private static final ToggleSwitch noTiles;
-    private static final TextField pyramidName;
-    private static final ToggleSwitch keepMemos;
-    private static final TextField memoDirectory;
-
-    private static final TextField readerOptions;
-    private static final TextField outputOptions;
-
-    private static final ListView<Class<?>> extraReaders;
+    private static ChoiceBox<String> logLevel;
+    private static ToggleSwitch autoResources;
+    private static TextField maxWorkers;
+    private static ChoiceBox<ZarrCompression> compression;
+    private static ToggleSwitch autoChunks;
+    private static TextField tileHeight;
+    private static TextField tileWidth;
+    private static TextField resolutions;
+    private static TextField series;
+    private static ToggleSwitch zipOutput;
+    private static ToggleSwitch compactDimensions;
+    private static ChoiceBox<DimensionOrder> dimensionOrder;
+    private static ChoiceBox<Downsampling> downsampling;
+    private static TextField minImageSize;
+    private static ToggleSwitch useExistingResolutions;
+    private static TextField chunkDepth;
+    private static TextField scaleFormatString;
+    private static TextField scaleFormatCSV;
+    private static TextField fillValue;
+    private static VBox compressionPropertiesBox;
+    private static ChoiceBox<String> compressorBloscCname;
+    private static TextField compressorBloscClevel;
+    private static TextField compressorBloscBlockSize;
+    private static ChoiceBox<String> compressorBloscShuffle;
+    private static TextField compressorZlibLevel;
+
+    private static TextField maxCachedTiles;
+    private static ToggleSwitch disableMinMax;
+    private static ToggleSwitch disableHCS;
+    private static ToggleSwitch nested;
+    private static ToggleSwitch originalMeta;
+    private static ToggleSwitch noOMEMeta;
+    private static ToggleSwitch noRoot;
+    private static ToggleSwitch noTiles;
+    private static TextField pyramidName;
+    private static ToggleSwitch keepMemos;
+    private static ToggleSwitch resume;
+    private static TextField memoDirectory;
+
+    private static TextField readerOptions;
+    private static TextField outputOptions;
+
+    private static ListView<Class<?>> extraReaders;
     private final HashSet<Class<?>> desiredReaders = new HashSet<>();
+    // Keep a fully converted output when a later task fails, and reuse it on the next attempt
+    private boolean resumable = true;
+    // Choose tile size and chunk depth from the input at run time instead of using the configured values
+    private boolean autoChunking = true;
+    // Size workers and tile cache from the host and other running jobs instead of the configured values
+    private boolean adaptiveResources = true;
+    // Pack the final NGFF into a single zip archive rather than leaving a directory of chunk files
+    private boolean singleFile = false;
+    private ChunkSizeTuner.SourceLayout sourceLayout = null;
+    private long sourceLayoutModified = 0;
     private static boolean userWarned = false;
 
     public String getName() { return name; }
@@ -118,23 +143,27 @@ public class CreateNGFF extends BaseTask{
         allReaders = converter.getExtraReaders();
         // Load the preferences stored as defaults
         applyDefaults();
-        converter.setOverwrite(Output.overwriteBox.selectedProperty().get());
+        converter.setOverwrite(Output.getDefaultOverwrite());
     }
 
     // Load settings from this instance's converter into the static widgets
     public void prepareForDisplay() {
+        createWidgets();
         // Link widgets to this instance
         bindWidgets();
 
         // Populate setting values
         logLevel.setValue(converter.getLogLevel());
+        autoResources.setSelected(adaptiveResources);
         maxWorkers.setText(String.valueOf(converter.getMaxWorkers()));
         compression.setValue(converter.getCompression());
+        autoChunks.setSelected(autoChunking);
         tileHeight.setText(String.valueOf(converter.getTileHeight()));
         tileWidth.setText(String.valueOf(converter.getTileWidth()));
         resolutions.setText(String.valueOf(converter.getResolutions()));
         series.setText(converter.getSeriesList().stream().map(String::valueOf)
                 .collect(joining(",")));
+        zipOutput.setSelected(singleFile);
         compactDimensions.setSelected(converter.getCompactDimensions());
         dimensionOrder.setValue(converter.getDimensionOrder());
         downsampling.setValue(converter.getDownsampling());
@@ -187,6 +216,7 @@ public class CreateNGFF extends BaseTask{
         noTiles.setSelected(converter.getNoTiles());
         pyramidName.setText(converter.getPyramidName());
         keepMemos.setSelected(converter.getKeepMemoFiles());
+        resume.setSelected(resumable);
         File memoDir = converter.getMemoDirectory();
         if (memoDir == null) {
             memoDirectory.setText(null);
@@ -233,11 +263,14 @@ public class CreateNGFF extends BaseTask{
 
     // Save settings from widgets into the converter's values
     public int applySettings() {
+        createWidgets();
         resetConverter();
         int errorCount = 0;
         converter.setLogLevel(logLevel.getValue());
+        adaptiveResources = autoResources.isSelected();
         if (!maxWorkers.getText().isEmpty()) converter.setMaxWorkers(Integer.parseInt(maxWorkers.getText()));
         converter.setCompression(compression.getValue());
+        autoChunking = autoChunks.isSelected();
         if (!tileHeight.getText().isEmpty()) converter.setTileHeight(Integer.parseInt(tileHeight.getText()));
         if (!tileWidth.getText().isEmpty()) converter.setTileWidth(Integer.parseInt(tileWidth.getText()));
 
@@ -253,6 +286,7 @@ public class CreateNGFF extends BaseTask{
                 errorCount++;
             }
         }
+        singleFile = zipOutput.isSelected();
         converter.setCompactDimensions(compactDimensions.isSelected());
         converter.setDimensionOrder(dimensionOrder.getValue());
         converter.setDownsampling(downsampling.getValue());
@@ -279,6 +313,7 @@ public class CreateNGFF extends BaseTask{
         if (pyramidName.getText() != null && !pyramidName.getText().isEmpty())
             converter.setPyramidName(pyramidName.getText());
         converter.setKeepMemoFiles(keepMemos.isSelected());
+        resumable = resume.isSelected();
         if (memoDirectory.getText() != null && !memoDirectory.getText().isEmpty()) {
             converter.setMemoDirectory(new File(memoDirectory.getText()));
         }
@@ -348,17 +383,82 @@ public class CreateNGFF extends BaseTask{
 
         desiredReaders.clear();
         desiredReaders.addAll(source.desiredReaders);
+        resumable = source.resumable;
+        autoChunking = source.autoChunking;
+        adaptiveResources = source.adaptiveResources;
+        singleFile = source.singleFile;
     }
 
 
+    // Identifies the input and settings an output was produced from
+    private String getFingerprint() {
+        StringWriter settings = new StringWriter();
+        try (JsonGenerator generator = new JsonFactory().createGenerator(settings)) {
+            generator.writeStartObject();
+            writeSettings(generator);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to record settings for resume - " + e);
+        }
+        // Every file of a multi-file dataset, so that a changed companion file invalidates the output too
+        StringBuilder fingerprint = new StringBuilder();
+        for (String member : new TreeSet<>(parent.getDatasetFiles())) {
+            File file = new File(member);
+            fingerprint.append("%s|%d|%d|".formatted(member, file.length(), file.lastModified()));
+        }
+        return fingerprint.append(settings).toString();
+    }
+
+    // A finished conversion which the next attempt can pick up again
+    @Override
+    public boolean hasReusableOutput() {
+        return resumable && !converter.getOverwrite() && status == JobState.status.COMPLETED && output != null
+                && !output.equals(input) && ConversionLedger.isComplete(output, getFingerprint());
+    }
+
     public void calculateOutput(String basePath) {
-        if (input.getAbsolutePath().endsWith(".zarr")) {
+        if (isNGFF(input)) {
             LOGGER.info("Input file appears to already be NGFF, will skip conversion step");
             this.output = this.input;
             return;
         }
+        // Only the final output is packed, later tasks in the workflow read the Zarr directory
+        boolean packed = singleFile && parent.tasks.indexOf(this) == parent.tasks.size() - 2;
         this.output = Paths.get(
-                basePath, this.outputName + ".zarr").toFile();
+                basePath, this.outputName + (packed ? ZarrArchive.extension : ".zarr")).toFile();
+    }
+
+    private static boolean isNGFF(File file) {
+        return file.getName().endsWith(".zarr") || ZarrArchive.isArchive(file);
+    }
+
+    // Directory bioformats2raw writes into before it's packed into an archive output
+    private File getStagingDirectory() {
+        return new File(output.getParentFile(), "." + output.getName().replace(ZarrArchive.extension, ".zarr"));
+    }
+
+    private String getSizeKey() {
+        return "NGFF|" + converter.getCompression();
+    }
+
+    @Override
+    public long estimateOutputSize(long inputBytes) {
+        // Existing NGFF isn't converted again
+        if (input != null && isNGFF(input)) return 0;
+        return (long) (inputBytes * SizeEstimator.pyramidFactor(converter.getResolutions())
+                * SizeEstimator.getDefault().getRatio(getSizeKey()));
+    }
+
+    @Override
+    public int getMaxWorkers() {
+        // Sized by the scheduler on admission
+        if (adaptiveResources) return 1;
+        return converter.getMaxWorkers();
+    }
+
+    @Override
+    public boolean adaptsWorkers() {
+        return adaptiveResources;
     }
 
     public void setOverwrite(boolean shouldOverwrite) {
@@ -367,7 +467,8 @@ public class CreateNGFF extends BaseTask{
 
     private void setupIO() {
         converter.setInputPath(this.input.getAbsolutePath());
-        converter.setOutputPath(this.output.getAbsolutePath());
+        if (ZarrArchive.isArchive(output)) converter.setOutputPath(getStagingDirectory().getAbsolutePath());
+        else converter.setOutputPath(this.output.getAbsolutePath());
     }
 
     public void updateStatus() {
@@ -377,7 +478,7 @@ public class CreateNGFF extends BaseTask{
             this.warningMessage = "I/O not configured";
             return;
         }
-        if (this.input.getName().endsWith(".zarr")) {
+        if (isNGFF(this.input)) {
             this.status = JobState.status.WARNING;
             this.warningMessage = "Input already appears to be NGFF, this step will be skipped";
             return;
@@ -395,22 +496,80 @@ public class CreateNGFF extends BaseTask{
         setupIO();
 
         ConverterProgressListener listener = new ConverterProgressListener(progressBar, progressLabel, timerLabel);
-        converter.setProgressListener(listener);
+        MetricsRecorder metrics = new MetricsRecorder(getName());
+        long inputBytes = SizeEstimator.inputSize(parent);
+        OutputSizeTracker tracker = trackOutput(inputBytes);
+        converter.setProgressListener(new CompositeProgressListener(listener, metrics, tracker));
 
         LOGGER.info("Running bioformats2raw");
         this.status = JobState.status.RUNNING;
 
         // Check if we actually need to convert to NGFF
-        if (input.getName().endsWith(".zarr")) {
+        if (isNGFF(input)) {
             LOGGER.info("Input file appears to already be NGFF, skipping conversion step");
             status = JobState.status.COMPLETED;
             listener.stop();
             return;
         }
+        String fingerprint = getFingerprint();
+        // Overwriting asks for a fresh conversion, even if a finished one is already there
+        if (resumable && !converter.getOverwrite() && ConversionLedger.isComplete(output, fingerprint)) {
+            LOGGER.info("Reusing completed NGFF output from a previous attempt: " + output.getAbsolutePath());
+            status = JobState.status.COMPLETED;
+            listener.stop();
+            return;
+        }
+        ConversionLedger ledger = null;
+        if (resumable) {
+            // A ledger means any existing output is a partial result of ours rather than something the user made
+            if (ConversionLedger.getLedgerFile(output).exists() && output.exists()) {
+                LOGGER.info("Removing incomplete output from a previous attempt");
+                try {
+                    FileUtils.forceDelete(output);
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to remove incomplete output - " + e);
+                }
+            }
+            ledger = new ConversionLedger(output, fingerprint);
+            converter.setProgressListener(new CompositeProgressListener(listener, metrics, tracker, ledger));
+        }
+        // Without a user-chosen memo directory, memos go to the shared cache and are kept for later runs
+        boolean cacheMemos = converter.getMemoDirectory() == null && MemoCache.isEnabled();
+        boolean keepMemoFiles = converter.getKeepMemoFiles();
+        long memoModified = 0;
+        if (cacheMemos) {
+            memoModified = MemoCache.getMemoModified(input);
+            converter.setMemoDirectory(MemoCache.getDirectory());
+            converter.setKeepMemoFiles(true);
+        }
+        int configuredWidth = converter.getTileWidth();
+        int configuredHeight = converter.getTileHeight();
+        int configuredDepth = converter.getChunkDepth();
+        int configuredWorkers = converter.getMaxWorkers();
+        int configuredCachedTiles = converter.getMaxCachedTiles();
+        // Worked out up front but only handed to the converter for the duration of the conversion
+        Tuning tuning = autoChunking || adaptiveResources ? tuneForInput() : null;
+        File staging = ZarrArchive.isArchive(output) ? getStagingDirectory() : null;
         try {
+            // Left behind by an interrupted attempt, bioformats2raw won't write over it
+            if (staging != null && staging.exists()) FileUtils.deleteDirectory(staging);
+            if (staging != null && output.exists() && !converter.getOverwrite())
+                throw new FileAlreadyExistsException(output.getAbsolutePath());
+            if (tuning != null) {
+                converter.setTileWidth(tuning.width());
+                converter.setTileHeight(tuning.height());
+                converter.setChunkDepth(tuning.depth());
+                converter.setMaxWorkers(tuning.workers());
+                converter.setMaxCachedTiles(tuning.cachedTiles());
+            }
             int result = converter.call();
+            if (result == 0 && staging != null) {
+                LOGGER.info("Packing NGFF into " + output.getName());
+                ZarrArchive.pack(staging, output);
+            }
             if (result == 0) {
                 this.status = JobState.status.COMPLETED;
+                if (ledger != null) ledger.complete();
                 LOGGER.info("NGFF creation complete");
             } else {
                 this.status = JobState.status.FAILED;
@@ -423,11 +582,82 @@ public class CreateNGFF extends BaseTask{
             this.status = JobState.status.FAILED;
         } finally {
             listener.stop();
+            if (staging != null && staging.exists()) {
+                try {
+                    CleanupService.delete(staging, parent.scheduler);
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to remove unpacked NGFF - " + e);
+                }
+            }
+            // Tuned values only apply to this run
+            converter.setTileWidth(configuredWidth);
+            converter.setTileHeight(configuredHeight);
+            converter.setChunkDepth(configuredDepth);
+            converter.setMaxWorkers(configuredWorkers);
+            converter.setMaxCachedTiles(configuredCachedTiles);
+            if (cacheMemos) {
+                converter.setMemoDirectory(null);
+                converter.setKeepMemoFiles(keepMemoFiles);
+                MemoCache.finish(input, memoModified, LOGGER);
+            }
+            metrics.finish(output);
+            tracker.finish(metrics.getOutputBytes());
+            parent.addMetrics(metrics);
+            if (status == JobState.status.COMPLETED) SizeEstimator.getDefault().record(getSizeKey(),
+                    inputBytes, metrics.getOutputBytes(),
+                    SizeEstimator.pyramidFactor(converter.getResolutions()));
+        }
+    }
+
+    // Chunk size and resources to convert this input with
+    private record Tuning(int width, int height, int depth, int workers, int cachedTiles) {}
+
+    private Tuning tuneForInput() {
+        ChunkSizeTuner.SourceLayout layout = getSourceLayout();
+        int width = converter.getTileWidth();
+        int height = converter.getTileHeight();
+        int depth = converter.getChunkDepth();
+        int workers = converter.getMaxWorkers();
+        int cachedTiles = converter.getMaxCachedTiles();
+        if (autoChunking && layout != null) {
+            ChunkSizeTuner.Chunking chunking = ChunkSizeTuner.tune(layout);
+            width = chunking.width();
+            height = chunking.height();
+            depth = chunking.depth();
+            LOGGER.info("Automatic tile size: source has %s, using %dx%d chunks with depth %d".formatted(
+                    chunking.source(), width, height, depth));
+        }
+        if (adaptiveResources) {
+            long tileBytes = layout == null ? 0 : (long) width * height * Math.max(1, depth)
+                    * layout.bytesPerPixel() * layout.samplesPerPixel();
+            ResourceTuner.Allocation allocation = ResourceTuner.allocate(parent, tileBytes);
+            workers = allocation.workers();
+            if (allocation.cachedTiles() > 0) cachedTiles = allocation.cachedTiles();
+            LOGGER.info("Automatic workers: %d worker(s) and %d cached tiles, from a %d MB share of the heap"
+                    .formatted(workers, cachedTiles, allocation.heapShare() / 1024 / 1024));
         }
+        return new Tuning(width, height, depth, workers, cachedTiles);
     }
 
-    // Generate settings widgets
-    static {
+    // Tile layout of the input, read once for each version of the input. Goes through the converter's memo
+    // directory so that an existing memo saves opening the input again.
+    private ChunkSizeTuner.SourceLayout getSourceLayout() {
+        long modified = input.lastModified();
+        if (sourceLayout != null && sourceLayoutModified == modified) return sourceLayout;
+        try {
+            sourceLayout = ChunkSizeTuner.inspect(input, converter.getMemoDirectory());
+            sourceLayoutModified = modified;
+        } catch (Exception e) {
+            LOGGER.warn("Unable to inspect input, using configured tile size and cache - " + e);
+            sourceLayout = null;
+        }
+        return sourceLayout;
+    }
+
+    // Generate settings widgets. These are only built once the GUI needs them, so that headless runs never
+    // create JavaFX controls.
+    private static void createWidgets() {
+        if (!standardSettings.isEmpty()) return;
         UnaryOperator<TextFormatter.Change> integerFilter = change -> {
             String newText = change.getControlNewText();
             if (newText.matches("([1-9][0-9]*)?")) {
@@ -460,8 +690,21 @@ public class CreateNGFF extends BaseTask{
                 "Detail level of logs to record"
         ));
 
+        autoResources = new ToggleSwitch();
+        standardSettings.add(getSettingContainer(
+                autoResources,
+                "Automatic workers",
+                """
+                Choose the number of workers and cached tiles from
+                the available cores and memory, shared between the
+                jobs running at the same time. Overrides the max
+                workers and max cached tiles settings.
+                """
+        ));
+
         maxWorkers = new TextField();
         maxWorkers.setTextFormatter(new TextFormatter<>(integerFilter));
+        maxWorkers.disableProperty().bind(autoResources.selectedProperty());
         standardSettings.add(getSettingContainer(
                 maxWorkers,
                 "Max Workers",
@@ -482,6 +725,18 @@ public class CreateNGFF extends BaseTask{
                         """
         ));
 
+        autoChunks = new ToggleSwitch();
+        standardSettings.add(getSettingContainer(
+                autoChunks,
+                "Automatic tile size",
+                """
+                Choose the tile size and chunk depth from the input
+                when the job runs, matching the tile layout of the
+                original data. Overrides the tile size and maximum
+                chunk depth settings.
+                """
+        ));
+
         tileHeight = new TextField();
         tileHeight.setTextFormatter(new TextFormatter<>(integerFilter));
         standardSettings.add(getSettingContainer(
@@ -526,6 +781,19 @@ public class CreateNGFF extends BaseTask{
                 "Comma-separated list of series indexes to convert"
         ));
 
+        zipOutput = new ToggleSwitch();
+        standardSettings.add(getSettingContainer(
+                zipOutput,
+                "Single file output",
+                """
+                Pack the finished NGFF into a single .zarr.zip
+                archive instead of a folder of chunk files, which
+                is much quicker to copy, back up and delete.
+                Chunks keep their own compression and are stored
+                in the archive without being compressed again.
+                """
+        ));
+
         /* Begin advanced settings */
 
         dimensionOrder = new ChoiceBox<>();
@@ -582,6 +850,9 @@ public class CreateNGFF extends BaseTask{
 
         chunkDepth = new TextField();
         chunkDepth.setTextFormatter(new TextFormatter<>(integerFilterZero));
+        tileHeight.disableProperty().bind(autoChunks.selectedProperty());
+        tileWidth.disableProperty().bind(autoChunks.selectedProperty());
+        chunkDepth.disableProperty().bind(autoChunks.selectedProperty());
         advancedSettings.add(getSettingContainer(
                 chunkDepth,
                 "Maximum Chunk Depth",
@@ -634,6 +905,7 @@ public class CreateNGFF extends BaseTask{
 
         maxCachedTiles = new TextField();
         maxCachedTiles.setTextFormatter(new TextFormatter<>(integerFilter));
+        maxCachedTiles.disableProperty().bind(autoResources.selectedProperty());
         advancedSettings.add(getSettingContainer(
                 maxCachedTiles,
                 "Max Cached Tiles",
@@ -729,6 +1001,17 @@ public class CreateNGFF extends BaseTask{
                 "Do not delete .bfmemo files created during conversion"
         ));
 
+        resume = new ToggleSwitch();
+        advancedSettings.add(getSettingContainer(
+                resume,
+                "Reuse completed conversions",
+                """
+                If a later step of the job fails, keep the finished NGFF
+                intermediate and reuse it when the job is run again.
+                Interrupted conversions still restart from the beginning.
+                """
+        ));
+
         memoDirectory = new TextField();
         HBox memoWidget = getDirectorySelectWidget(memoDirectory, "Choose memo file directory", null);
         advancedSettings.add(getSettingContainer(
@@ -852,9 +1135,11 @@ public class CreateNGFF extends BaseTask{
     }
 
     public ArrayList<Node> getStandardSettings() {
+        createWidgets();
         return standardSettings;
     }
     public ArrayList<Node> getAdvancedSettings() {
+        createWidgets();
         return advancedSettings;
     }
 
@@ -940,6 +1225,10 @@ public class CreateNGFF extends BaseTask{
             taskPreferences.put(prefKeys.PYRAMID_NAME.name(), converter.getPyramidName());
         }
         taskPreferences.putBoolean(prefKeys.KEEP_MEMOS.name(), converter.getKeepMemoFiles());
+        taskPreferences.putBoolean(prefKeys.RESUME.name(), resumable);
+        taskPreferences.putBoolean(prefKeys.AUTO_CHUNKS.name(), autoChunking);
+        taskPreferences.putBoolean(prefKeys.AUTO_RESOURCES.name(), adaptiveResources);
+        taskPreferences.putBoolean(prefKeys.ZIP_OUTPUT.name(), singleFile);
         if (converter.getMemoDirectory() != null) {
             taskPreferences.put(prefKeys.MEMO_DIR.name(), converter.getMemoDirectory().getAbsolutePath());
         }
@@ -1011,6 +1300,10 @@ public class CreateNGFF extends BaseTask{
         converter.setPyramidName(taskPreferences.get(prefKeys.PYRAMID_NAME.name(), converter.getPyramidName()));
         converter.setKeepMemoFiles(taskPreferences.getBoolean(
                 prefKeys.KEEP_MEMOS.name(), converter.getKeepMemoFiles()));
+        resumable = taskPreferences.getBoolean(prefKeys.RESUME.name(), true);
+        autoChunking = taskPreferences.getBoolean(prefKeys.AUTO_CHUNKS.name(), true);
+        adaptiveResources = taskPreferences.getBoolean(prefKeys.AUTO_RESOURCES.name(), true);
+        singleFile = taskPreferences.getBoolean(prefKeys.ZIP_OUTPUT.name(), false);
         String memoDir = taskPreferences.get(prefKeys.MEMO_DIR.name(), null);
         if (memoDir != null) {
             converter.setMemoDirectory(new File(memoDir));
@@ -1045,6 +1338,11 @@ public class CreateNGFF extends BaseTask{
                 && taskPreferences.get(prefKeys.MAX_WORKERS.name(), null) != null
                 && taskPreferences.get("Version", null) == null) {
             // We check MAX_WORKERS as an indicator of whether any saved settings are present at all
+            if (parent.isHeadless()) {
+                LOGGER.warn("Default CreateNGFF settings were saved by an earlier version and may not apply properly");
+                userWarned = true;
+                return;
+            }
             Alert warn = new Alert(Alert.AlertType.WARNING,
                              """
                              Your default CreateNGFF settings were saved in an earlier version of \
@@ -1069,9 +1367,7 @@ public class CreateNGFF extends BaseTask{
         applyDefaults();
     }
 
-    public void exportSettings(JsonGenerator generator) throws IOException {
-        // Ensure displayed settings are what gets saved
-        applySettings();
+    public void writeSettings(JsonGenerator generator) throws IOException {
         generator.writeFieldName(getName());
         generator.writeStartObject();
         generator.writeFieldName(prefKeys.LOG_LEVEL.name());
@@ -1151,6 +1447,14 @@ public class CreateNGFF extends BaseTask{
         }
         generator.writeFieldName(prefKeys.KEEP_MEMOS.name());
         generator.writeBoolean(converter.getKeepMemoFiles());
+        generator.writeFieldName(prefKeys.RESUME.name());
+        generator.writeBoolean(resumable);
+        generator.writeFieldName(prefKeys.AUTO_CHUNKS.name());
+        generator.writeBoolean(autoChunking);
+        generator.writeFieldName(prefKeys.AUTO_RESOURCES.name());
+        generator.writeBoolean(adaptiveResources);
+        generator.writeFieldName(prefKeys.ZIP_OUTPUT.name());
+        generator.writeBoolean(singleFile);
         if (converter.getMemoDirectory() != null) {
             generator.writeFieldName(prefKeys.MEMO_DIR.name());
             generator.writeString(converter.getMemoDirectory().getAbsolutePath());
@@ -1176,105 +1480,129 @@ public class CreateNGFF extends BaseTask{
             LOGGER.warn("No settings node for Task %s".formatted(getName()));
             return;
         }
+        // Settings are applied straight to the converter so that this works without any widgets.
+        // The GUI refreshes its widgets from the converter after an import.
         JsonNode subject;
         subject = settings.get(prefKeys.LOG_LEVEL.name());
-        if (subject != null) logLevel.setValue(subject.textValue());
+        if (subject != null) converter.setLogLevel(subject.textValue());
 
         subject = settings.get(prefKeys.MAX_WORKERS.name());
-        if (subject != null) maxWorkers.setText(subject.textValue());
+        if (subject != null) converter.setMaxWorkers(subject.asInt());
 
         subject = settings.get(prefKeys.COMPRESSION.name());
-        if (subject != null) compression.setValue(ZarrCompression.valueOf(subject.textValue()));
+        if (subject != null) converter.setCompression(ZarrCompression.valueOf(subject.textValue()));
 
         subject = settings.get(prefKeys.TILE_WIDTH.name());
-        if (subject != null) tileWidth.setText(subject.textValue());
+        if (subject != null) converter.setTileWidth(subject.asInt());
 
         subject = settings.get(prefKeys.TILE_HEIGHT.name());
-        if (subject != null) tileHeight.setText(subject.textValue());
+        if (subject != null) converter.setTileHeight(subject.asInt());
 
         subject = settings.get(prefKeys.RESOLUTIONS.name());
-        if (subject != null) resolutions.setText(subject.textValue());
+        if (subject != null) converter.setResolutions(subject.asInt());
 
         subject = settings.get(prefKeys.SERIES.name());
-        if (subject != null) series.setText(subject.textValue());
+        if (subject != null && !subject.asText().isEmpty())
+            converter.setSeriesList(Arrays.stream(subject.asText().split(",")).map(Integer::parseInt).toList());
 
         subject = settings.get(prefKeys.COMPACT_DIMENSIONS.name());
-        if (subject != null) compactDimensions.setSelected(subject.booleanValue());
+        if (subject != null) converter.setCompactDimensions(subject.booleanValue());
 
         subject = settings.get(prefKeys.DIMENSION_ORDER.name());
-        if (subject != null) dimensionOrder.setValue(DimensionOrder.valueOf(subject.textValue()));
+        if (subject != null) converter.setDimensionOrder(DimensionOrder.valueOf(subject.textValue()));
 
         subject = settings.get(prefKeys.DOWNSAMPLING.name());
-        if (subject != null) downsampling.setValue(Downsampling.valueOf(subject.textValue()));
+        if (subject != null) converter.setDownsampling(Downsampling.valueOf(subject.textValue()));
 
         subject = settings.get(prefKeys.MIN_IMAGE_SIZE.name());
-        if (subject != null) minImageSize.setText(subject.textValue());
+        if (subject != null) converter.setMinImageSize(subject.asInt());
 
         subject = settings.get(prefKeys.REUSE_RES.name());
-        if (subject != null) useExistingResolutions.setSelected(subject.booleanValue());
+        if (subject != null) converter.setReuseExistingResolutions(subject.booleanValue());
 
         subject = settings.get(prefKeys.CHUNK_DEPTH.name());
-        if (subject != null) chunkDepth.setText(subject.textValue());
+        if (subject != null) converter.setChunkDepth(subject.asInt());
 
         subject = settings.get(prefKeys.SCALE_FORMAT_STRING.name());
-        if (subject != null) scaleFormatString.setText(subject.textValue());
+        if (subject != null) converter.setScaleFormat(subject.textValue());
 
         subject = settings.get(prefKeys.SCALE_FORMAT_CSV.name());
-        if (subject != null) scaleFormatCSV.setText(subject.textValue());
+        if (subject != null && !subject.asText().isEmpty())
+            converter.setAdditionalScaleFormatCSV(Paths.get(subject.asText()));
 
         subject = settings.get(prefKeys.FILL_VALUE.name());
-        if (subject != null) fillValue.setText(subject.textValue());
-
-        subject = settings.get(prefKeys.BLOSC_CNAME.name());
-        if (subject != null) compressorBloscCname.setValue(subject.textValue());
+        if (subject != null && !subject.asText().isEmpty())
+            converter.setFillValue(Short.valueOf(subject.asText()));
 
-        subject = settings.get(prefKeys.BLOSC_CLEVEL.name());
-        if (subject != null) compressorBloscClevel.setText(subject.textValue());
-
-        subject = settings.get(prefKeys.BLOSC_BLOCKSIZE.name());
-        if (subject != null) compressorBloscBlockSize.setText(subject.textValue());
-
-        subject = settings.get(prefKeys.BLOSC_SHUFFLE.name());
-        if (subject != null) compressorBloscShuffle.setValue(subject.textValue());
-
-        subject = settings.get(prefKeys.ZLIB_LEVEL.name());
-        if (subject != null) compressorZlibLevel.setText(subject.textValue());
+        Map<String, Object> compressionProps = new HashMap<>();
+        if (converter.getCompression() == ZarrCompression.blosc) {
+            subject = settings.get(prefKeys.BLOSC_CNAME.name());
+            if (subject != null) compressionProps.put("cname", subject.textValue());
+            subject = settings.get(prefKeys.BLOSC_CLEVEL.name());
+            if (subject != null) compressionProps.put("clevel", subject.asInt());
+            subject = settings.get(prefKeys.BLOSC_BLOCKSIZE.name());
+            if (subject != null) compressionProps.put("blocksize", subject.asInt());
+            subject = settings.get(prefKeys.BLOSC_SHUFFLE.name());
+            if (subject != null) compressionProps.put("shuffle", subject.asInt());
+        } else if (converter.getCompression() == ZarrCompression.zlib) {
+            subject = settings.get(prefKeys.ZLIB_LEVEL.name());
+            if (subject != null) compressionProps.put("level", subject.asInt());
+        }
+        converter.setCompressionProperties(compressionProps);
 
         subject = settings.get(prefKeys.MAX_CACHED_TILES.name());
-        if (subject != null) maxCachedTiles.setText(subject.textValue());
+        if (subject != null) converter.setMaxCachedTiles(subject.asInt());
 
         subject = settings.get(prefKeys.CALC_MIN_MAX.name());
-        if (subject != null) disableMinMax.setSelected(subject.booleanValue());
+        if (subject != null) converter.setCalculateOMEROMetadata(!subject.booleanValue());
+
+        subject = settings.get(prefKeys.HCS.name());
+        if (subject != null) converter.setNoHCS(subject.booleanValue());
 
         subject = settings.get(prefKeys.NESTED.name());
-        if (subject != null) nested.setSelected(subject.booleanValue());
+        if (subject != null) converter.setUnnested(!subject.booleanValue());
 
         subject = settings.get(prefKeys.WRITE_METADATA.name());
-        if (subject != null) originalMeta.setSelected(subject.booleanValue());
+        if (subject != null) converter.setNoOriginalMetadata(!subject.booleanValue());
 
         subject = settings.get(prefKeys.OME_META.name());
-        if (subject != null) noOMEMeta.setSelected(subject.booleanValue());
+        if (subject != null) converter.setNoOMEMeta(subject.booleanValue());
 
         subject = settings.get(prefKeys.NO_ROOT.name());
-        if (subject != null) noRoot.setSelected(subject.booleanValue());
+        if (subject != null) converter.setNoRootGroup(subject.booleanValue());
 
         subject = settings.get(prefKeys.NO_TILES.name());
-        if (subject != null) noTiles.setSelected(subject.booleanValue());
+        if (subject != null) converter.setNoTiles(subject.booleanValue());
 
         subject = settings.get(prefKeys.PYRAMID_NAME.name());
-        if (subject != null) pyramidName.setText(subject.textValue());
+        if (subject != null) converter.setPyramidName(subject.textValue());
 
         subject = settings.get(prefKeys.KEEP_MEMOS.name());
-        if (subject != null) keepMemos.setSelected(subject.booleanValue());
+        if (subject != null) converter.setKeepMemoFiles(subject.booleanValue());
+
+        subject = settings.get(prefKeys.RESUME.name());
+        if (subject != null) resumable = subject.booleanValue();
+
+        subject = settings.get(prefKeys.AUTO_CHUNKS.name());
+        if (subject != null) autoChunking = subject.booleanValue();
+
+        subject = settings.get(prefKeys.AUTO_RESOURCES.name());
+        if (subject != null) adaptiveResources = subject.booleanValue();
+
+        subject = settings.get(prefKeys.ZIP_OUTPUT.name());
+        if (subject != null) singleFile = subject.booleanValue();
 
         subject = settings.get(prefKeys.MEMO_DIR.name());
-        if (subject != null) memoDirectory.setText(subject.textValue());
+        if (subject != null && !subject.asText().isEmpty())
+            converter.setMemoDirectory(new File(subject.asText()));
 
         subject = settings.get(prefKeys.READER_OPTS.name());
-        if (subject != null) readerOptions.setText(subject.textValue());
+        if (subject != null && !subject.asText().isEmpty())
+            converter.setReaderOptions(Arrays.stream(subject.asText().split(",")).toList());
 
         subject = settings.get(prefKeys.OUTPUT_OPTS.name());
-        if (subject != null) outputOptions.setText(subject.textValue());
+        if (subject != null && !subject.asText().isEmpty())
+            converter.setOutputOptions(Splitter.on(",").withKeyValueSeparator("=").split(subject.asText()));
 
         subject = settings.get(prefKeys.EXTRA_READERS.name());
         if (subject != null) {
@@ -1286,7 +1614,8 @@ public class CreateNGFF extends BaseTask{
                     LOGGER.error("Did not find class for extra reader " + s);
                     return null;
                 }
-            }).toList());
+            }).filter(Objects::nonNull).toList());
+            converter.setExtraReaders(desiredReaders.toArray(new Class<?>[0]));
         }
         LOGGER.info("Loaded settings for Task %s".formatted(getName()));
     }
@@ -9,8 +9,13 @@ package com.glencoesoftware.convert.tasks;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.glencoesoftware.convert.App;
+import com.glencoesoftware.convert.CleanupService;
 import com.glencoesoftware.convert.JobState;
+import com.glencoesoftware.convert.SizeEstimator;
+import com.glencoesoftware.convert.tasks.progress.CompositeProgressListener;
 import com.glencoesoftware.convert.tasks.progress.ConverterProgressListener;
+import com.glencoesoftware.convert.tasks.progress.MetricsRecorder;
+import com.glencoesoftware.convert.tasks.progress.OutputSizeTracker;
 import com.glencoesoftware.convert.workflows.BaseWorkflow;
 import com.glencoesoftware.pyramid.CompressionType;
 import com.glencoesoftware.pyramid.PyramidFromDirectoryWriter;
@@ -20,8 +25,10 @@ import javafx.scene.control.*;
 import loci.formats.codec.CodecOptions;
 import loci.formats.codec.JPEG2000CodecOptions;
 import org.controlsfx.control.ToggleSwitch;
+import org.apache.commons.io.FileUtils;
 import picocli.CommandLine;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -38,23 +45,27 @@ public class CreateTiff extends BaseTask {
     public static final String name = "Convert to TIFF";
 
     public static final Preferences taskPreferences = Preferences.userRoot().node(name);
-    public enum prefKeys {LOG_LEVEL, MAX_WORKERS, COMPRESSION, LEGACY, RGB, SPLIT, SPLIT_PLANES, COMPRESSION_OPTS}
+    public enum prefKeys {LOG_LEVEL, MAX_WORKERS, COMPRESSION, LEGACY, RGB, SPLIT, SPLIT_PLANES, COMPRESSION_OPTS,
+        AUTO_RESOURCES}
 
     private static final ArrayList<Node> standardSettings = new ArrayList<>();
 
     private static final ArrayList<Node> advancedSettings = new ArrayList<>();
 
-    private static final ChoiceBox<CompressionType> compression;
+    private static ChoiceBox<CompressionType> compression;
 
-    private static final ChoiceBox<String> logLevel;
-    private static final ToggleSwitch legacy;
-    private static final TextField maxWorkers;
-    private static final TextField compressionQuality;
-    private static final ToggleSwitch rgb;
-    private static final ToggleSwitch split;
-    private static final ToggleSwitch splitPlanes;
+    private static ChoiceBox<String> logLevel;
+    private static ToggleSwitch legacy;
+    private static ToggleSwitch autoResources;
+    private static TextField maxWorkers;
+    private static TextField compressionQuality;
+    private static ToggleSwitch rgb;
+    private static ToggleSwitch split;
+    private static ToggleSwitch splitPlanes;
 
-    private boolean overwrite = Output.overwriteBox.selectedProperty().get();
+    private boolean overwrite = Output.getDefaultOverwrite();
+    // Size the worker pool from the host and other running jobs instead of the configured value
+    private boolean adaptiveResources = true;
 
     public String getName() { return name; }
 
@@ -68,8 +79,10 @@ public class CreateTiff extends BaseTask {
 
     // Load settings from this instance's converter into the static widgets
     public void prepareForDisplay() {
+        createWidgets();
         // Populate setting values
         logLevel.getSelectionModel().select(converter.getLogLevel());
+        autoResources.setSelected(adaptiveResources);
         maxWorkers.setText(String.valueOf(converter.getMaxWorkers()));
         compression.setValue(converter.getCompression());
         rgb.setSelected(converter.getRGB());
@@ -88,8 +101,10 @@ public class CreateTiff extends BaseTask {
 
     // Save settings from widgets into the converter's values
     public int applySettings() {
+        createWidgets();
         resetConverter();
         converter.setLogLevel(logLevel.getValue());
+        adaptiveResources = autoResources.isSelected();
         if (!maxWorkers.getText().isEmpty()) converter.setMaxWorkers(Integer.parseInt(maxWorkers.getText()));
         converter.setCompression(compression.getValue());
         converter.setLegacyTIFF(legacy.isSelected());
@@ -118,6 +133,40 @@ public class CreateTiff extends BaseTask {
         converter.setOutputPath(this.output.getAbsolutePath());
     }
 
+    private String getSizeKey() {
+        return "TIFF|" + converter.getCompression();
+    }
+
+    @Override
+    public long estimateOutputSize(long inputBytes) {
+        return (long) (inputBytes * SizeEstimator.getDefault().getRatio(getSizeKey()));
+    }
+
+    // Archived NGFF is unpacked in full before raw2ometiff reads it. Entries are stored, so it takes up the same space.
+    @Override
+    public long estimateScratchSize(long inputBytes) {
+        return ZarrArchive.isArchive(input) ? inputBytes : 0;
+    }
+
+    // Kept out of the output folder, which may be the user's own
+    @Override
+    public File getScratchDirectory() {
+        File workingDirectory = parent.getWorkingDirectory();
+        return workingDirectory != null ? workingDirectory : output.getParentFile();
+    }
+
+    @Override
+    public int getMaxWorkers() {
+        // Sized by the scheduler on admission
+        if (adaptiveResources) return 1;
+        return converter.getMaxWorkers();
+    }
+
+    @Override
+    public boolean adaptsWorkers() {
+        return adaptiveResources;
+    }
+
     public void setOverwrite(boolean shouldOverwrite) {
         overwrite = shouldOverwrite;
     }
@@ -126,11 +175,30 @@ public class CreateTiff extends BaseTask {
         // Apply GUI configurations first
         setupIO();
         ConverterProgressListener listener = new ConverterProgressListener(progressBar, progressLabel, timerLabel);
-        converter.setProgressListener(listener);
+        MetricsRecorder metrics = new MetricsRecorder(getName());
+        long inputBytes = SizeEstimator.sizeOf(input);
+        OutputSizeTracker tracker = trackOutput(inputBytes);
+        converter.setProgressListener(new CompositeProgressListener(listener, metrics, tracker));
         LOGGER.info("Running raw2ometiff");
         this.status = JobState.status.RUNNING;
+        int configuredWorkers = converter.getMaxWorkers();
+        if (adaptiveResources) {
+            ResourceTuner.Allocation allocation = ResourceTuner.allocate(parent, 0);
+            converter.setMaxWorkers(allocation.workers());
+            LOGGER.info("Automatic workers: %d worker(s) of %d".formatted(
+                    allocation.workers(), parent.scheduler.getWorkerBudget()));
+        }
+        // raw2ometiff reads a Zarr directory, so archived NGFF is unpacked into the working directory first
+        File unpacked = ZarrArchive.isArchive(input) ? new File(getScratchDirectory(), ".%s-%s".formatted(
+                parent.jobId, input.getName().replace(ZarrArchive.extension, ".zarr"))) : null;
         try {
             if (!overwrite && output.exists()) throw new IOException("Output path already exists");
+            if (unpacked != null) {
+                LOGGER.info("Unpacking " + input.getName());
+                if (unpacked.exists()) FileUtils.deleteDirectory(unpacked);
+                ZarrArchive.unpack(input, unpacked);
+                converter.setInputPath(unpacked.getAbsolutePath());
+            }
             converter.call();
             this.status = JobState.status.COMPLETED;
             LOGGER.info("TIFF creation successful");
@@ -140,6 +208,19 @@ public class CreateTiff extends BaseTask {
             parent.statusText = "Job Failed: " + e;
         } finally {
             listener.stop();
+            if (unpacked != null && unpacked.exists()) {
+                try {
+                    CleanupService.delete(unpacked, parent.scheduler);
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to remove unpacked NGFF - " + e);
+                }
+            }
+            converter.setMaxWorkers(configuredWorkers);
+            metrics.finish(output);
+            tracker.finish(metrics.getOutputBytes());
+            parent.addMetrics(metrics);
+            if (status == JobState.status.COMPLETED) SizeEstimator.getDefault().record(getSizeKey(),
+                    inputBytes, metrics.getOutputBytes(), 1);
         }
     }
 
@@ -157,8 +238,9 @@ public class CreateTiff extends BaseTask {
     }
 
 
-    // Generate standard controls
-    static {
+    // Generate standard controls. Only built once the GUI needs them, headless runs never create widgets.
+    private static void createWidgets() {
+        if (!standardSettings.isEmpty()) return;
         UnaryOperator<TextFormatter.Change> integerFilter = change -> {
             String newText = change.getControlNewText();
             if (newText.matches("([1-9][0-9]*)?")) {
@@ -184,8 +266,20 @@ public class CreateTiff extends BaseTask {
                 "Detail level of logs to record"
         ));
 
+        autoResources = new ToggleSwitch();
+        standardSettings.add(getSettingContainer(
+                autoResources,
+                "Automatic workers",
+                """
+                Choose the number of workers from the available
+                cores, shared between the jobs running at the same
+                time. Overrides the max workers setting.
+                """
+        ));
+
         maxWorkers = new TextField();
         maxWorkers.setTextFormatter(new TextFormatter<>(integerFilter));
+        maxWorkers.disableProperty().bind(autoResources.selectedProperty());
         standardSettings.add(getSettingContainer(
                 maxWorkers,
                 "Max Workers",
@@ -254,10 +348,12 @@ public class CreateTiff extends BaseTask {
 
 
     public ArrayList<Node> getStandardSettings() {
+        createWidgets();
         return standardSettings;
     }
 
     public ArrayList<Node> getAdvancedSettings() {
+        createWidgets();
         return advancedSettings;
     }
 
@@ -274,6 +370,7 @@ public class CreateTiff extends BaseTask {
         taskPreferences.putBoolean(prefKeys.RGB.name(), converter.getRGB());
         taskPreferences.putBoolean(prefKeys.SPLIT.name(), converter.getSplitTIFFs());
         taskPreferences.putBoolean(prefKeys.SPLIT_PLANES.name(), converter.getSplitSinglePlaneTIFFs());
+        taskPreferences.putBoolean(prefKeys.AUTO_RESOURCES.name(), adaptiveResources);
         if (converter.getCompressionOptions() != null)
             taskPreferences.putDouble(prefKeys.COMPRESSION_OPTS.name(), converter.getCompressionOptions().quality);
         taskPreferences.flush();
@@ -289,13 +386,12 @@ public class CreateTiff extends BaseTask {
         converter.setSplitTIFFs(taskPreferences.getBoolean(prefKeys.SPLIT.name(), converter.getSplitTIFFs()));
         converter.setSplitSinglePlaneTIFFs(taskPreferences.getBoolean(
                 prefKeys.SPLIT_PLANES.name(), converter.getSplitSinglePlaneTIFFs()));
+        adaptiveResources = taskPreferences.getBoolean(prefKeys.AUTO_RESOURCES.name(), true);
         CodecOptions codec = null;
         if (converter.getCompression() == CompressionType.JPEG_2000) {
             codec = JPEG2000CodecOptions.getDefaultOptions();
-            if (!compressionQuality.getText().isEmpty()) {
-                codec.quality = taskPreferences.getDouble(
-                        prefKeys.COMPRESSION_OPTS.name(), converter.getCompressionOptions().quality);
-            }}
+            codec.quality = taskPreferences.getDouble(prefKeys.COMPRESSION_OPTS.name(), codec.quality);
+        }
         converter.setCompressionOptions(codec);
     }
 
@@ -312,6 +408,7 @@ public class CreateTiff extends BaseTask {
         converter.setSplitTIFFs(source.converter.getSplitTIFFs());
         converter.setSplitSinglePlaneTIFFs(source.converter.getSplitSinglePlaneTIFFs());
         converter.setCompressionOptions(source.converter.getCompressionOptions());
+        adaptiveResources = source.adaptiveResources;
     }
 
     public void resetToDefaults() {
@@ -324,9 +421,7 @@ public class CreateTiff extends BaseTask {
         cli.parseArgs();
     }
 
-    public void exportSettings(JsonGenerator generator) throws IOException {
-        // Ensure displayed settings are what gets saved
-        applySettings();
+    public void writeSettings(JsonGenerator generator) throws IOException {
         generator.writeFieldName(getName());
         generator.writeStartObject();
         generator.writeFieldName(prefKeys.LOG_LEVEL.name());
@@ -343,6 +438,8 @@ public class CreateTiff extends BaseTask {
         generator.writeBoolean(converter.getSplitTIFFs());
         generator.writeFieldName(prefKeys.SPLIT_PLANES.name());
         generator.writeBoolean(converter.getSplitSinglePlaneTIFFs());
+        generator.writeFieldName(prefKeys.AUTO_RESOURCES.name());
+        generator.writeBoolean(adaptiveResources);
         if (converter.getCompressionOptions() != null) {
             generator.writeFieldName(prefKeys.COMPRESSION_OPTS.name());
             generator.writeString(String.valueOf(converter.getCompressionOptions().quality));
@@ -356,30 +453,39 @@ public class CreateTiff extends BaseTask {
             LOGGER.warn("No settings node for Task %s".formatted(getName()));
             return;
         }
+        // Settings are applied straight to the converter so that this works without any widgets.
         JsonNode subject;
         subject = settings.get(prefKeys.LOG_LEVEL.name());
-        if (subject != null) logLevel.setValue(subject.textValue());
+        if (subject != null) converter.setLogLevel(subject.textValue());
 
         subject = settings.get(prefKeys.MAX_WORKERS.name());
-        if (subject != null) maxWorkers.setText(String.valueOf(subject.intValue()));
+        if (subject != null) converter.setMaxWorkers(subject.asInt());
 
         subject = settings.get(prefKeys.COMPRESSION.name());
-        if (subject != null) compression.setValue(CompressionType.valueOf(subject.textValue()));
+        if (subject != null) converter.setCompression(CompressionType.valueOf(subject.textValue()));
 
         subject = settings.get(prefKeys.LEGACY.name());
-        if (subject != null) legacy.setSelected(subject.booleanValue());
+        if (subject != null) converter.setLegacyTIFF(subject.booleanValue());
 
         subject = settings.get(prefKeys.RGB.name());
-        if (subject != null) rgb.setSelected(subject.booleanValue());
+        if (subject != null) converter.setRGB(subject.booleanValue());
 
         subject = settings.get(prefKeys.SPLIT.name());
-        if (subject != null) split.setSelected(subject.booleanValue());
+        if (subject != null) converter.setSplitTIFFs(subject.booleanValue());
 
         subject = settings.get(prefKeys.SPLIT_PLANES.name());
-        if (subject != null) splitPlanes.setSelected(subject.booleanValue());
+        if (subject != null) converter.setSplitSinglePlaneTIFFs(subject.booleanValue());
+
+        subject = settings.get(prefKeys.AUTO_RESOURCES.name());
+        if (subject != null) adaptiveResources = subject.booleanValue();
 
-        subject = settings.get(prefKeys.COMPRESSION_OPTS.name());
-        if (subject != null) compressionQuality.setText(subject.textValue());
+        CodecOptions codec = null;
+        if (converter.getCompression() == CompressionType.JPEG_2000) {
+            codec = JPEG2000CodecOptions.getDefaultOptions();
+            subject = settings.get(prefKeys.COMPRESSION_OPTS.name());
+            if (subject != null && !subject.asText().isEmpty()) codec.quality = subject.asDouble();
+        }
+        converter.setCompressionOptions(codec);
 
         LOGGER.info("Loaded settings for Task %s".formatted(getName()));
     }
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert.tasks;
+
+import com.glencoesoftware.convert.PrimaryController;
+import loci.formats.FormatTools;
+import loci.formats.Memoizer;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// Shared cache of Bio-Formats memo files, so that reader initialisation is only paid once per dataset.
+// Memos live under a directory named after the Bio-Formats version, as memos from other versions can't be used.
+// Each memo's modification time is bumped when it's reused, and the least recently used memos are evicted once the
+// cache grows past its size limit.
+public class MemoCache {
+
+    private static final ch.qos.logback.classic.Logger LOGGER =
+            (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(MemoCache.class);
+
+    public static final int defaultLimitMB = 2048;
+
+    private static final File cacheRoot =
+            new File(new File(System.getProperty("user.home"), ".ngff-converter"), "memo-cache");
+    private static final AtomicInteger hits = new AtomicInteger();
+    private static final AtomicInteger misses = new AtomicInteger();
+
+    private MemoCache() {}
+
+    public static File getDirectory() {
+        return new File(cacheRoot, FormatTools.VERSION);
+    }
+
+    private static long getLimitBytes() {
+        return PrimaryController.userPreferences.getInt(
+                PrimaryController.prefName.MEMO_CACHE_LIMIT.name(), defaultLimitMB) * 1024L * 1024L;
+    }
+
+    public static boolean isEnabled() {
+        return getLimitBytes() > 0;
+    }
+
+    private static File getMemoFile(File input) {
+        return new Memoizer(0, getDirectory()).getMemoFile(input.getAbsolutePath());
+    }
+
+    // Modification time of the input's memo before conversion, 0 if there isn't one
+    public static long getMemoModified(File input) {
+        File memo = getMemoFile(input);
+        return memo == null ? 0 : memo.lastModified();
+    }
+
+    // Report how the memo was used during a conversion and keep the cache within its limit
+    public static void finish(File input, long memoModifiedBefore, ch.qos.logback.classic.Logger jobLogger) {
+        File memo = getMemoFile(input);
+        long memoModified = memo == null ? 0 : memo.lastModified();
+        if (memoModified == 0) {
+            jobLogger.info("Memo cache: reader initialisation was quick enough that no memo was saved");
+        } else if (memoModified == memoModifiedBefore) {
+            hits.incrementAndGet();
+            // Mark as recently used
+            if (!memo.setLastModified(System.currentTimeMillis()))
+                LOGGER.debug("Unable to update memo timestamp for " + memo);
+            jobLogger.info("Memo cache: hit for %s (%d hits, %d misses this session)".formatted(
+                    input.getName(), hits.get(), misses.get()));
+        } else {
+            misses.incrementAndGet();
+            jobLogger.info("Memo cache: miss for %s, memo saved (%d hits, %d misses this session)".formatted(
+                    input.getName(), hits.get(), misses.get()));
+        }
+        evict(jobLogger);
+    }
+
+    // Remove memos from other Bio-Formats versions, then the least recently used memos until under the limit
+    private static synchronized void evict(ch.qos.logback.classic.Logger jobLogger) {
+        File current = getDirectory();
+        File[] versions = cacheRoot.listFiles();
+        if (versions != null) {
+            for (File version : versions) {
+                if (version.equals(current)) continue;
+                try {
+                    FileUtils.deleteDirectory(version);
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to remove outdated memo cache %s - %s".formatted(version, e));
+                }
+            }
+        }
+        if (!current.isDirectory()) return;
+
+        List<Path> memos = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(current.toPath())) {
+            files.filter(Files::isRegularFile).forEach(memos::add);
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.warn("Unable to scan memo cache - " + e);
+            return;
+        }
+        long limit = getLimitBytes();
+        long total = 0;
+        for (Path memo : memos) total += memo.toFile().length();
+        if (total <= limit) {
+            jobLogger.debug("Memo cache holds %d memos using %s".formatted(
+                    memos.size(), FileUtils.byteCountToDisplaySize(total)));
+            return;
+        }
+        memos.sort(Comparator.comparingLong(memo -> memo.toFile().lastModified()));
+        int evicted = 0;
+        for (Path memo : memos) {
+            if (total <= limit) break;
+            long size = memo.toFile().length();
+            try {
+                Files.deleteIfExists(memo);
+                total -= size;
+                evicted++;
+            } catch (IOException e) {
+                LOGGER.debug("Unable to evict memo %s - %s".formatted(memo, e));
+            }
+        }
+        jobLogger.info("Memo cache: evicted %d memo(s), now using %s".formatted(
+                evicted, FileUtils.byteCountToDisplaySize(total)));
+    }
+}
@@ -10,6 +10,8 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.glencoesoftware.convert.App;
 import com.glencoesoftware.convert.JobState;
+import com.glencoesoftware.convert.SizeEstimator;
+import com.glencoesoftware.convert.tasks.progress.CopyProgressListener;
 import com.glencoesoftware.convert.workflows.BaseWorkflow;
 import com.glencoesoftware.convert.workflows.ConvertToTiff;
 import javafx.geometry.Pos;
@@ -17,6 +19,7 @@ import javafx.scene.Node;
 import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
+import javafx.scene.control.TextFormatter;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
@@ -30,10 +33,12 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
@@ -43,7 +48,7 @@ public class Output extends BaseTask {
     public static final String name = "Output";
     public static final Preferences taskPreferences = Preferences.userRoot().node(name);
     public enum prefKeys {OVERWRITE, DIRECT_WRITE, LOG_CHOICE, LOG_LOCATION,
-        WORKING_CHOICE, WORKING_DIR, OUTPUT_CHOICE, OUTPUT_DIR}
+        WORKING_CHOICE, WORKING_DIR, OUTPUT_CHOICE, OUTPUT_DIR, MEMORY_SCRATCH_LIMIT}
 
     public enum outputLocationType {
         INPUT_FOLDER("Same folder as input"),
@@ -82,43 +87,94 @@ public class Output extends BaseTask {
 
     private workingDirectoryType workingDirectoryLocation = workingDirectoryType.SYSTEM_TEMP;
     private File trueWorkingDirectory = null;
+    // Intermediates estimated to be smaller than this (in MB) are written to a RAM-backed directory. 0 disables.
+    private int memoryScratchLimit = defaultMemoryScratchLimit;
+    private static final int defaultMemoryScratchLimit = 512;
+    // Intermediate Zarr size is estimated as the input dataset size multiplied by this
+    private static final int intermediateSizeFactor = 2;
+    // RAM-backed space held by this job's intermediates while it runs, 0 when they're on disk
+    private long memoryScratchReserved = 0;
 
     // Static widget settings for display
     private static final ArrayList<Node> standardSettings = new ArrayList<>();
     private static final ArrayList<Node> addFilesSettings = new ArrayList<>();
-    static final ToggleSwitch overwriteBox = new ToggleSwitch();
-    private static final ToggleSwitch directWriteBox = new ToggleSwitch();
-    private static final ChoiceBox<outputLocationType> outputChoice = new ChoiceBox<>();
-    private static final TextField outputDirectory = new TextField();
-    private static final TextField outputFileName = new TextField();
-    private static final ChoiceBox<workingDirectoryType> workingDirectoryChoice = new ChoiceBox<>();
-    private static final TextField workingDirectoryField = new TextField();
-    private static final ChoiceBox<logFileType> logChoice = new ChoiceBox<>();
-    private static final TextField logDirectory = new TextField();
-    private static final VBox outputLocationBox = getSettingGroupContainer();
-    public static final VBox outputFileNameContainer;
-    private static final VBox outputDirectoryContainer;
-    private static final VBox outputChoiceContainer;
-    private static final VBox overwriteContainer;
-    private static final VBox directWriteContainer;
-    private static final Label outputTitle;
-    private static final FontIcon fileBrowseButton;
-    private static final FontIcon fileResetButton;
-    private static final HBox logDirWidget;
-    private static final HBox workingDirWidget;
-    private static final VBox logSettingsBox = getSettingGroupContainer();
-    private static final VBox workingSettingsBox = getSettingGroupContainer();
+    private static ToggleSwitch overwriteBox;
+    private static ToggleSwitch directWriteBox;
+    private static ChoiceBox<outputLocationType> outputChoice;
+    private static TextField outputDirectory;
+    private static TextField outputFileName;
+    private static ChoiceBox<workingDirectoryType> workingDirectoryChoice;
+    private static TextField workingDirectoryField;
+    private static TextField memoryScratchField;
+    private static ChoiceBox<logFileType> logChoice;
+    private static TextField logDirectory;
+    private static VBox outputLocationBox;
+    public static VBox outputFileNameContainer;
+    private static VBox outputDirectoryContainer;
+    private static VBox outputChoiceContainer;
+    private static VBox overwriteContainer;
+    private static VBox directWriteContainer;
+    private static Label outputTitle;
+    private static FontIcon fileBrowseButton;
+    private static FontIcon fileResetButton;
+    private static HBox logDirWidget;
+    private static HBox workingDirWidget;
+    private static VBox logSettingsBox;
+    private static VBox workingSettingsBox;
     private static File sysTemp = null;
+    private static File memoryTemp = null;
+    private static boolean memoryTempChecked = false;
+    // Space reserved on the RAM-backed directory by all running jobs
+    private static long memoryTempReserved = 0;
 
     public String getName() { return name; }
 
     public Output(BaseWorkflow parent) {
         super(parent);
+        if (parent.isHeadless()) {
+            // There are no widgets when running headless, so take the saved defaults directly
+            applyPreferences();
+            return;
+        }
         // When adding jobs we reset the widgets for the addFilesDialog,
         // so if the dialog wasn't shown we're just applying defaults here
         applySettings();
     }
 
+    // Overwrite choice for newly created jobs. Taken from the widget when the GUI is active, otherwise the saved default.
+    public static boolean getDefaultOverwrite() {
+        if (overwriteBox != null) return overwriteBox.isSelected();
+        return taskPreferences.getBoolean(prefKeys.OVERWRITE.name(), false);
+    }
+
+    // Load saved defaults straight into this instance, skipping the widgets
+    private void applyPreferences() {
+        outputLocation = outputLocationType.valueOf(taskPreferences.get(prefKeys.OUTPUT_CHOICE.name(),
+                outputLocationType.INPUT_FOLDER.name()));
+        String outputDir = taskPreferences.get(prefKeys.OUTPUT_DIR.name(), "");
+        if (outputLocation == outputLocationType.CUSTOM_FOLDER && !outputDir.isEmpty())
+            outputFolder = new File(outputDir);
+        else outputLocation = outputLocationType.INPUT_FOLDER;
+        overwrite = getDefaultOverwrite();
+        directWrite = taskPreferences.getBoolean(prefKeys.DIRECT_WRITE.name(), true);
+
+        logToFile = logFileType.valueOf(taskPreferences.get(prefKeys.LOG_CHOICE.name(), logFileType.DISABLED.name()));
+        String logLocation = taskPreferences.get(prefKeys.LOG_LOCATION.name(), "");
+        if (logToFile == logFileType.CUSTOM_FOLDER) {
+            if (logLocation.isEmpty()) logToFile = logFileType.OUTPUT_FOLDER;
+            else logFileLocation = new File(logLocation);
+        }
+
+        workingDirectoryLocation = workingDirectoryType.valueOf(taskPreferences.get(prefKeys.WORKING_CHOICE.name(),
+                workingDirectoryType.SYSTEM_TEMP.name()));
+        String workingDir = taskPreferences.get(prefKeys.WORKING_DIR.name(), "");
+        if (workingDirectoryLocation == workingDirectoryType.CUSTOM_FOLDER) {
+            if (workingDir.isEmpty()) workingDirectoryLocation = workingDirectoryType.SYSTEM_TEMP;
+            else trueWorkingDirectory = new File(workingDir);
+        }
+        memoryScratchLimit = taskPreferences.getInt(prefKeys.MEMORY_SCRATCH_LIMIT.name(), defaultMemoryScratchLimit);
+    }
+
 
     public void applyOutputToWidgets() {
         outputDirectory.setText(this.output.getParent());
@@ -131,7 +187,7 @@ public class Output extends BaseTask {
         // Can only do this if input was already set
         if (input == null) return;
         String fileName = outputFileName.getText();
-        String extension = parent.getOutputExtension();
+        String extension = ZarrArchive.isArchive(input) ? ZarrArchive.extension : parent.getOutputExtension();
         // User cleared a custom name
         if (fileName.isEmpty()) fileName = input.getName();
         else if (!fileName.toLowerCase().endsWith(extension)) {
@@ -144,6 +200,7 @@ public class Output extends BaseTask {
     }
 
     public void prepareForDisplay() {
+        createWidgets();
         bindWidgets();
         applyOutputToWidgets();
         overwriteBox.setSelected(overwrite);
@@ -152,6 +209,7 @@ public class Output extends BaseTask {
         if (logFileLocation != null) logDirectory.setText(logFileLocation.getAbsolutePath());
         workingDirectoryChoice.setValue(workingDirectoryLocation);
         if (trueWorkingDirectory != null) workingDirectoryField.setText(trueWorkingDirectory.getAbsolutePath());
+        memoryScratchField.setText(String.valueOf(memoryScratchLimit));
     }
 
     // Attach this instance to the static widgets
@@ -177,6 +235,7 @@ public class Output extends BaseTask {
     }
 
     public int applySettings() {
+        createWidgets();
         int errors = 0;
         outputLocation = outputChoice.getValue();
         String outputText = outputDirectory.getText();
@@ -222,6 +281,8 @@ public class Output extends BaseTask {
                     workingDirectoryField.getStyleClass().add("setting-warn");
             }
         }
+        if (!memoryScratchField.getText().isEmpty())
+            memoryScratchLimit = Integer.parseInt(memoryScratchField.getText());
         // Recalculate job IO in case the user switched temp directory
         if (input != null) parent.calculateIO();
         outputFileName.getStyleClass().remove("setting-warn");
@@ -288,13 +349,98 @@ public class Output extends BaseTask {
         }
     }
 
+    // Find a tmpfs mount we can write intermediates into, if the system has one
+    private static synchronized File getMemoryTemp() {
+        if (!memoryTempChecked) {
+            memoryTempChecked = true;
+            Path shm = Paths.get("/dev/shm");
+            try {
+                if (Files.isDirectory(shm) && Files.isWritable(shm)
+                        && Files.getFileStore(shm).type().equals("tmpfs")) {
+                    File created = Files.createTempDirectory(shm, "ngff-converter").toFile();
+                    // deleteOnExit can't remove a directory with anything left in it
+                    Runtime.getRuntime().addShutdownHook(new Thread(() -> FileUtils.deleteQuietly(created)));
+                    memoryTemp = created;
+                }
+            } catch (IOException e) {
+                // Fall back to the working directory
+                memoryTemp = null;
+            }
+        }
+        return memoryTemp;
+    }
+
+    // Directory for intermediates which are only consumed by a later task. This is the RAM-backed directory while
+    // the job holds a reservation on it (see reserveMemoryScratch), otherwise the working directory.
+    public File getIntermediateDirectory() {
+        if (memoryScratchReserved > 0) return getMemoryTemp();
+        return getWorkingDirectory();
+    }
+
+    // Called as the job starts. Small jobs reserve room for their intermediates in the RAM-backed directory, so
+    // that jobs running side by side can't overfill it between them. Returns whether the reservation was made.
+    public boolean reserveMemoryScratch() {
+        releaseMemoryScratch();
+        if (memoryScratchLimit <= 0 || parent.firstInput.isDirectory()) return false;
+        long estimatedSize = SizeEstimator.inputSize(parent) * intermediateSizeFactor;
+        if (estimatedSize <= 0 || estimatedSize > memoryScratchLimit * 1024L * 1024L) return false;
+        synchronized (Output.class) {
+            File memoryDir = getMemoryTemp();
+            // Leave headroom for whatever else uses the mount
+            if (memoryDir == null || memoryDir.getUsableSpace() - memoryTempReserved < estimatedSize * 2)
+                return false;
+            memoryTempReserved += estimatedSize;
+            memoryScratchReserved = estimatedSize;
+        }
+        LOGGER.info("Using RAM-backed scratch space for intermediates");
+        return true;
+    }
+
+    public void releaseMemoryScratch() {
+        synchronized (Output.class) {
+            memoryTempReserved -= memoryScratchReserved;
+            memoryScratchReserved = 0;
+        }
+    }
+
+    // Called as the job finishes. The job stops using the RAM-backed directory straight away, but the space stays
+    // reserved until the returned callback runs, once the intermediates written there have actually been removed.
+    public Runnable detachMemoryScratch() {
+        long reserved;
+        synchronized (Output.class) {
+            reserved = memoryScratchReserved;
+            memoryScratchReserved = 0;
+        }
+        AtomicBoolean released = new AtomicBoolean(false);
+        return () -> {
+            if (reserved == 0 || !released.compareAndSet(false, true)) return;
+            synchronized (Output.class) {
+                memoryTempReserved -= reserved;
+            }
+        };
+    }
+
+    public static boolean isMemoryScratch(File file) {
+        File memoryDir;
+        synchronized (Output.class) {
+            memoryDir = memoryTemp;
+        }
+        return memoryDir != null && file != null && memoryDir.equals(file.getAbsoluteFile().getParentFile());
+    }
+
     public void calculateOutput(String workingDir) {
         // This is the virtual output task, so we actually don't care about the working directory our parent proposes
 
         // If we're not calling this for the first time (output exists), make sure we copy over any custom filename
         String sourceName;
         if (output == null) sourceName = input.getName();
-        else sourceName = output.getName();
+        else {
+            sourceName = output.getName();
+            // Follow the previous task if it switched between writing a Zarr directory and a single file archive
+            if (ZarrArchive.isArchive(input) && sourceName.endsWith(".zarr")) sourceName += ".zip";
+            else if (input.getName().endsWith(".zarr") && ZarrArchive.isArchive(output))
+                sourceName = sourceName.substring(0, sourceName.length() - ".zip".length());
+        }
         this.output = new File(getOutputFolder(), sourceName);
     }
 
@@ -354,6 +500,8 @@ public class Output extends BaseTask {
         }
 
         LOGGER.info("Saving final output file");
+        CopyProgressListener progress = new CopyProgressListener(progressBar, progressLabel, timerLabel, LOGGER);
+        progress.start();
         try {
             File[] toMove;
             String baseName = input.getName().replace(".ome.tiff", "");
@@ -372,14 +520,12 @@ public class Output extends BaseTask {
             }
             for (File fileToMove : Objects.requireNonNull(toMove)) {
                 if (!Objects.equals(fileToMove.getAbsolutePath(), output.getAbsolutePath())) {
-                    if (fileToMove.isDirectory()) FileUtils.moveDirectory(fileToMove, output);
+                    if (fileToMove.isDirectory()) OutputMover.move(fileToMove, output, overwrite, progress, LOGGER,
+                            parent.scheduler);
                     else {
                         String moveName = fileToMove.getName().replace(baseName, finalName);
                         File targetFile = new File(output.getParentFile().getAbsolutePath(), moveName);
-                        if (overwrite)
-                            FileUtils.moveFile(fileToMove, targetFile,
-                                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
-                        else FileUtils.moveFile(fileToMove, targetFile);
+                        OutputMover.move(fileToMove, targetFile, overwrite, progress, LOGGER, parent.scheduler);
                     }
                 }
             }
@@ -389,11 +535,28 @@ public class Output extends BaseTask {
             this.status = JobState.status.FAILED;
             LOGGER.error("Failed to copy");
             LOGGER.error(String.valueOf(e));
+        } finally {
+            progress.stop();
         }
     }
 
-    // Generate widgets
-    static {
+    // Generate widgets. Only built once the GUI needs them, so that headless runs never create JavaFX controls.
+    private static void createWidgets() {
+        if (!standardSettings.isEmpty()) return;
+        overwriteBox = new ToggleSwitch();
+        directWriteBox = new ToggleSwitch();
+        outputChoice = new ChoiceBox<>();
+        outputDirectory = new TextField();
+        outputFileName = new TextField();
+        workingDirectoryChoice = new ChoiceBox<>();
+        workingDirectoryField = new TextField();
+        memoryScratchField = new TextField();
+        logChoice = new ChoiceBox<>();
+        logDirectory = new TextField();
+        outputLocationBox = getSettingGroupContainer();
+        logSettingsBox = getSettingGroupContainer();
+        workingSettingsBox = getSettingGroupContainer();
+
         // Generate standard controls
         outputTitle = getSettingHeader("Output Location",
                 "Choose where to save the resulting files");
@@ -462,6 +625,7 @@ public class Output extends BaseTask {
                 """
                         If enabled, execution logs will also be recorded into a text file.
                         The file will be named <output_file_name>.log
+                        Conversion timings are also saved alongside it as <output_file_name>.metrics.json
                         
                         Regardless of this setting, logs are captured in the viewer within NGFF-Converter
                         """
@@ -519,10 +683,25 @@ public class Output extends BaseTask {
                 Folder in which to write temporary files.
                 """
                 ));
+
+        memoryScratchField.setTextFormatter(new TextFormatter<>(change ->
+                change.getControlNewText().matches("[0-9]*") ? change : null));
+        workingSettingsBox.getChildren().add(
+                getSettingContainer(memoryScratchField, "Memory-backed intermediate limit (MB)",
+                        """
+                Small jobs can write their intermediate files to a memory-backed (tmpfs) directory
+                instead of the working directory, which avoids a lot of disk activity.
+                
+                Intermediates estimated to be larger than this limit are always written to the
+                working directory. Set to 0 to disable. Only available on systems with a
+                tmpfs mount such as /dev/shm.
+                """
+                ));
     }
 
 
     public ArrayList<Node> getStandardSettings() {
+        createWidgets();
         outputFileNameContainer.setVisible(true);
         outputFileNameContainer.setManaged(true);
         return standardSettings;
@@ -533,6 +712,7 @@ public class Output extends BaseTask {
     }
 
     public static ArrayList<Node> getAddFilesSettings() {
+        createWidgets();
         // We hide the file name from this reduced settings display
         outputFileNameContainer.setVisible(false);
         outputFileNameContainer.setManaged(false);
@@ -560,6 +740,7 @@ public class Output extends BaseTask {
         logToFile = source.logToFile;
         logFileLocation = source.logFileLocation;
         workingDirectoryLocation = source.workingDirectoryLocation;
+        memoryScratchLimit = source.memoryScratchLimit;
     }
 
     public void resetToDefaults() {
@@ -568,6 +749,7 @@ public class Output extends BaseTask {
 
     // Reset the static widgets back to defaults
     public static void resetWidgets() {
+        createWidgets();
         outputChoice.setValue(outputLocationType.valueOf(taskPreferences.get(prefKeys.OUTPUT_CHOICE.name(),
                 outputLocationType.INPUT_FOLDER.name())));
 
@@ -589,9 +771,12 @@ public class Output extends BaseTask {
                 workingDirectoryType.SYSTEM_TEMP.name())));
         String workingDir = taskPreferences.get(prefKeys.WORKING_DIR.name(), null);
         workingDirectoryField.setText(Objects.requireNonNullElse(workingDir, ""));
+        memoryScratchField.setText(String.valueOf(
+                taskPreferences.getInt(prefKeys.MEMORY_SCRATCH_LIMIT.name(), defaultMemoryScratchLimit)));
     }
 
     public static void setDefaultsFromWidgets() throws BackingStoreException {
+        createWidgets();
         taskPreferences.clear();
         taskPreferences.put("Version", App.version);
 
@@ -611,13 +796,13 @@ public class Output extends BaseTask {
         taskPreferences.put(prefKeys.WORKING_CHOICE.name(), workingDirectoryChoice.getValue().name());
         if (workingDirectoryChoice.getValue() == workingDirectoryType.CUSTOM_FOLDER)
             taskPreferences.put(prefKeys.WORKING_DIR.name(), workingDirectoryField.getText());
+        if (!memoryScratchField.getText().isEmpty())
+            taskPreferences.putInt(prefKeys.MEMORY_SCRATCH_LIMIT.name(), Integer.parseInt(memoryScratchField.getText()));
 
         taskPreferences.flush();
     }
 
-    public void exportSettings(JsonGenerator generator) throws IOException {
-        // Ensure displayed settings are what gets saved
-        applySettings();
+    public void writeSettings(JsonGenerator generator) throws IOException {
         generator.writeFieldName(getName());
         generator.writeStartObject();
         generator.writeFieldName(prefKeys.OUTPUT_CHOICE.name());
@@ -643,6 +828,8 @@ public class Output extends BaseTask {
             generator.writeFieldName(prefKeys.WORKING_DIR.name());
             generator.writeString(trueWorkingDirectory.getAbsolutePath());
         }
+        generator.writeFieldName(prefKeys.MEMORY_SCRATCH_LIMIT.name());
+        generator.writeNumber(memoryScratchLimit);
         generator.writeEndObject();
 
     }
@@ -653,30 +840,46 @@ public class Output extends BaseTask {
             LOGGER.warn("No settings node for Task %s".formatted(getName()));
             return;
         }
+        // Settings are applied straight to this instance so that this works without any widgets.
         JsonNode subject;
         subject = settings.get(prefKeys.OUTPUT_CHOICE.name());
-        if (subject != null) outputChoice.setValue(outputLocationType.valueOf(subject.textValue()));
+        if (subject != null) outputLocation = outputLocationType.valueOf(subject.textValue());
 
         subject = settings.get(prefKeys.OUTPUT_DIR.name());
-        if (subject != null) outputDirectory.setText(subject.textValue());
+        if (subject != null) outputFolder = new File(subject.textValue());
+        if (outputLocation == outputLocationType.CUSTOM_FOLDER && outputFolder == null)
+            outputLocation = outputLocationType.INPUT_FOLDER;
 
         subject = settings.get(prefKeys.OVERWRITE.name());
-        if (subject != null) overwriteBox.setSelected(subject.booleanValue());
+        if (subject != null) {
+            overwrite = subject.booleanValue();
+            // Overwrite applies to all tasks, not just this one
+            parent.setOverwrite(overwrite);
+        }
 
         subject = settings.get(prefKeys.DIRECT_WRITE.name());
-        if (subject != null) directWriteBox.setSelected(subject.booleanValue());
+        if (subject != null) directWrite = subject.booleanValue();
 
         subject = settings.get(prefKeys.LOG_CHOICE.name());
-        if (subject != null) logChoice.setValue(logFileType.valueOf(subject.textValue()));
+        if (subject != null) logToFile = logFileType.valueOf(subject.textValue());
 
         subject = settings.get(prefKeys.LOG_LOCATION.name());
-        if (subject != null) logDirectory.setText(subject.textValue());
+        if (subject != null) logFileLocation = new File(subject.textValue());
+        if (logToFile == logFileType.CUSTOM_FOLDER && logFileLocation == null) logToFile = logFileType.OUTPUT_FOLDER;
 
         subject = settings.get(prefKeys.WORKING_CHOICE.name());
-        if (subject != null) workingDirectoryChoice.setValue(workingDirectoryType.valueOf(subject.textValue()));
+        if (subject != null) workingDirectoryLocation = workingDirectoryType.valueOf(subject.textValue());
 
         subject = settings.get(prefKeys.WORKING_DIR.name());
-        if (subject != null) workingDirectoryField.setText(subject.textValue());
+        if (subject != null) trueWorkingDirectory = new File(subject.textValue());
+        if (workingDirectoryLocation == workingDirectoryType.CUSTOM_FOLDER && trueWorkingDirectory == null)
+            workingDirectoryLocation = workingDirectoryType.SYSTEM_TEMP;
+
+        subject = settings.get(prefKeys.MEMORY_SCRATCH_LIMIT.name());
+        if (subject != null) memoryScratchLimit = subject.asInt();
+
+        // Recalculate job IO in case the destination changed
+        if (input != null) parent.calculateIO();
 
         LOGGER.info("Loaded settings for Task %s".formatted(getName()));
     }
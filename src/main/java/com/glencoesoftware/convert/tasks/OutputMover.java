@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert.tasks;
+
+import com.glencoesoftware.convert.CleanupService;
+import com.glencoesoftware.convert.JobScheduler;
+import com.glencoesoftware.convert.tasks.progress.CopyProgressListener;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// Moves finished outputs into place. On the same drive this is a single rename. Across drives the tree is copied by
+// several threads using FileChannel.transferTo (so the kernel moves the data), into a hidden sibling of the target
+// which is then renamed into place, so a partially copied output never appears under the final name. The source is
+// only removed once the copy is complete. An output being replaced is renamed aside rather than deleted up front,
+// and only removed (in the background) once the new one is in place.
+public class OutputMover {
+
+    private static final int copyThreads = 8;
+    private static final AtomicInteger threadCount = new AtomicInteger(0);
+
+    private OutputMover() {}
+
+    public static void move(File source, File target, boolean overwrite, CopyProgressListener progress,
+                            ch.qos.logback.classic.Logger jobLogger, JobScheduler scheduler) throws IOException {
+        if (target.exists() && !overwrite) throw new FileAlreadyExistsException(target.getAbsolutePath());
+        Files.createDirectories(target.getParentFile().toPath());
+        if (sameDrive(source, target)) {
+            try {
+                replace(source, target, scheduler);
+                jobLogger.info("Renamed %s into place".formatted(source.getName()));
+                return;
+            } catch (IOException e) {
+                jobLogger.debug("Rename not possible, copying instead - " + e);
+            }
+        }
+
+        File partial = new File(target.getParentFile(), "." + target.getName() + ".partial");
+        if (partial.exists()) FileUtils.forceDelete(partial);
+        try {
+            copy(source.toPath(), partial.toPath(), progress, jobLogger);
+            replace(partial, target, scheduler);
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(partial);
+            throw e;
+        }
+        if (source.isDirectory()) FileUtils.deleteDirectory(source);
+        else Files.delete(source.toPath());
+    }
+
+    private static boolean sameDrive(File source, File target) {
+        try {
+            FileStore sourceStore = Files.getFileStore(source.toPath());
+            FileStore targetStore = Files.getFileStore(target.getParentFile().toPath());
+            return sourceStore.equals(targetStore);
+        } catch (IOException e) {
+            // Copying works either way
+            return false;
+        }
+    }
+
+    // Rename a finished output to the target name. Anything already there is moved aside first and put back if the
+    // rename fails, so the user is never left without either version.
+    private static void replace(File ready, File target, JobScheduler scheduler) throws IOException {
+        File previous = null;
+        if (target.exists()) {
+            previous = new File(target.getParentFile(), "." + target.getName() + ".previous");
+            if (previous.exists()) FileUtils.forceDelete(previous);
+            Files.move(target.toPath(), previous.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        try {
+            Files.move(ready.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (previous != null) {
+                try {
+                    Files.move(previous.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException restore) {
+                    e.addSuppressed(restore);
+                }
+            }
+            throw e;
+        }
+        if (previous != null) CleanupService.delete(previous, scheduler);
+    }
+
+    // Recreate the directory structure, then copy the files in parallel
+    private static void copy(Path source, Path target, CopyProgressListener progress,
+                             ch.qos.logback.classic.Logger jobLogger) throws IOException {
+        List<Path> files = new ArrayList<>();
+        long totalBytes = 0;
+        try (Stream<Path> tree = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) tree::iterator) {
+                Path destination = target.resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path)) Files.createDirectories(destination);
+                else {
+                    files.add(path);
+                    totalBytes += Files.size(path);
+                }
+            }
+        }
+        jobLogger.info("Copying %d file(s), %s, to another drive".formatted(
+                files.size(), FileUtils.byteCountToDisplaySize(totalBytes)));
+        progress.addTotal(totalBytes);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(copyThreads, files.size())), r -> {
+            Thread t = new Thread(r, "Output-Copy-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> copies = new ArrayList<>(files.size());
+            for (Path file : files) {
+                Path destination = target.resolve(source.relativize(file).toString());
+                copies.add(pool.submit(() -> {
+                    copyFile(file, destination, progress);
+                    return null;
+                }));
+            }
+            for (Future<?> copy : copies) copy.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) throw ioe;
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while copying output", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void copyFile(Path source, Path target, CopyProgressListener progress) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0) throw new IOException("Copy of %s stopped after %d of %d bytes".formatted(
+                        source.getFileName(), position, size));
+                position += transferred;
+                progress.addCopied(transferred);
+            }
+        }
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+    }
+}
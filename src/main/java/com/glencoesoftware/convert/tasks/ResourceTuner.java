@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert.tasks;
+
+import com.glencoesoftware.convert.workflows.BaseWorkflow;
+
+// Sizes converter worker pools and tile caches from the host rather than fixed settings.
+// When a job is admitted the scheduler reserves a share of the workers which are free at that point, split between
+// the jobs which could start alongside it. A lone job on an idle host therefore gets every core. The job is then
+// handed exactly those workers, so running jobs use what admission accounted for and no more.
+// Each job's share of the heap follows its share of the worker budget. Half of that is kept for the converter's own
+// use, the rest holds in-flight tiles for each worker and the tile cache.
+public class ResourceTuner {
+
+    public record Allocation(int workers, int cachedTiles, long heapShare) {}
+
+    // Each worker holds a source tile, a chunk being written and a downsampled copy
+    private static final int tilesPerWorker = 3;
+    private static final int maxCachedTiles = 4096;
+    // Largest default chunk, 1024x1024 with 8 bytes per pixel, used before the real tile size is known
+    private static final long defaultTileBytes = 1024 * 1024 * 8;
+
+    private ResourceTuner() {}
+
+    // Workers to reserve for a job being admitted, given the workers not claimed by running jobs and the number of
+    // queued jobs which could start now. Capped by what the heap can hold.
+    public static int share(int freeWorkers, int startingJobs, long maxMemory) {
+        int workers = Math.max(1, freeWorkers / Math.max(1, startingJobs));
+        long heapWorkers = maxMemory / 2 / 2 / (defaultTileBytes * tilesPerWorker);
+        return (int) Math.max(1, Math.min(workers, heapWorkers));
+    }
+
+    // Tile size is in bytes, 0 if unknown (no cache sizing is done)
+    public static Allocation allocate(BaseWorkflow job, long tileBytes) {
+        int budget = job.scheduler.getWorkerBudget();
+        // What was reserved when the job was admitted, or what a lone job would get if it wasn't
+        int workers = job.scheduler.getReservedWorkers(job);
+        if (workers <= 0) workers = share(budget, 1, Runtime.getRuntime().maxMemory());
+        return allocate(workers, budget, Runtime.getRuntime().maxMemory(), tileBytes);
+    }
+
+    static Allocation allocate(int reservedWorkers, int workerBudget, long maxMemory, long tileBytes) {
+        int workers = Math.max(1, reservedWorkers);
+        workerBudget = Math.max(1, workerBudget);
+        // A job running on its own may have been allowed more than the budget
+        long heapShare = maxMemory / 2 / workerBudget * Math.min(workers, workerBudget);
+        if (tileBytes <= 0) return new Allocation(workers, 0, heapShare);
+
+        // Fewer workers when each would hold too much of the heap
+        workers = (int) Math.max(1, Math.min(workers, heapShare / 2 / (tileBytes * tilesPerWorker)));
+        long cacheBudget = heapShare - workers * tilesPerWorker * tileBytes;
+        int cachedTiles = (int) Math.max(1, Math.min(maxCachedTiles, cacheBudget / tileBytes));
+        return new Allocation(workers, cachedTiles, heapShare);
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert.tasks;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+// Single file NGFF: a Zarr hierarchy stored in a zip archive, with the Zarr root at the top of the archive.
+// Chunks are already compressed by the Zarr codec, so entries are stored rather than deflated, which lets readers
+// seek straight to any chunk using the archive's central directory.
+public class ZarrArchive {
+
+    public static final String extension = ".zarr.zip";
+    private static final int bufferSize = 1024 * 1024;
+
+    private ZarrArchive() {}
+
+    public static boolean isArchive(File file) {
+        return file != null && file.getName().toLowerCase().endsWith(extension);
+    }
+
+    // Write every file under the Zarr directory into a new archive. Written alongside and renamed into place, so
+    // an interrupted pack never leaves a truncated archive under the final name.
+    public static void pack(File directory, File archive) throws IOException {
+        File partial = new File(archive.getParentFile(), "." + archive.getName() + ".partial");
+        Path root = directory.toPath();
+        List<Path> files;
+        try (Stream<Path> tree = Files.walk(root)) {
+            files = tree.filter(Files::isRegularFile).sorted().toList();
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(partial.toPath()), bufferSize);
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.setMethod(ZipOutputStream.STORED);
+            byte[] buffer = new byte[bufferSize];
+            for (Path file : files) {
+                // Stored entries need their CRC up front, so each file is read twice rather than held in memory
+                long size = Files.size(file);
+                ZipEntry entry = new ZipEntry(root.relativize(file).toString().replace(File.separatorChar, '/'));
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(size);
+                entry.setCompressedSize(size);
+                entry.setCrc(checksum(file, buffer));
+                entry.setLastModifiedTime(Files.getLastModifiedTime(file));
+                zip.putNextEntry(entry);
+                try (InputStream in = Files.newInputStream(file)) {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) zip.write(buffer, 0, read);
+                }
+                zip.closeEntry();
+            }
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(partial);
+            throw e;
+        }
+        Files.move(partial.toPath(), archive.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long checksum(Path file, byte[] buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) crc.update(buffer, 0, read);
+        }
+        return crc.getValue();
+    }
+
+    // Extract an archive into a directory, for tools which need the Zarr on disk
+    public static void unpack(File archive, File directory) throws IOException {
+        Path root = directory.toPath().toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        try (ZipFile zip = new ZipFile(archive)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                Path target = root.resolve(entry.getName()).normalize();
+                if (!target.startsWith(root)) throw new IOException("Invalid archive entry " + entry.getName());
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                    continue;
+                }
+                Files.createDirectories(target.getParent());
+                try (InputStream in = zip.getInputStream(entry)) {
+                    Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+}
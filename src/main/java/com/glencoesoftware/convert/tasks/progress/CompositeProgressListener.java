@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert.tasks.progress;
+
+import com.glencoesoftware.bioformats2raw.IProgressListener;
+
+import java.util.List;
+
+// Converters only accept a single progress listener, so this forwards each event to several.
+public class CompositeProgressListener implements IProgressListener {
+
+    private final List<IProgressListener> listeners;
+
+    public CompositeProgressListener(IProgressListener... listeners) {
+        this.listeners = List.of(listeners);
+    }
+
+    @Override
+    public void notifyStart(int seriesCount, long chunkCount) {
+        for (IProgressListener listener : listeners) listener.notifyStart(seriesCount, chunkCount);
+    }
+
+    @Override
+    public void notifySeriesStart(int series, int resolutionCount, int chunkCount) {
+        for (IProgressListener listener : listeners) listener.notifySeriesStart(series, resolutionCount, chunkCount);
+    }
+
+    @Override
+    public void notifySeriesEnd(int series) {
+        for (IProgressListener listener : listeners) listener.notifySeriesEnd(series);
+    }
+
+    @Override
+    public void notifyResolutionStart(int resolution, int tileCount) {
+        for (IProgressListener listener : listeners) listener.notifyResolutionStart(resolution, tileCount);
+    }
+
+    @Override
+    public void notifyChunkStart(int plane, int xx, int yy, int zz) {
+        for (IProgressListener listener : listeners) listener.notifyChunkStart(plane, xx, yy, zz);
+    }
+
+    @Override
+    public void notifyChunkEnd(int plane, int xx, int yy, int zz) {
+        for (IProgressListener listener : listeners) listener.notifyChunkEnd(plane, xx, yy, zz);
+    }
+
+    @Override
+    public void notifyResolutionEnd(int resolution) {
+        for (IProgressListener listener : listeners) listener.notifyResolutionEnd(resolution);
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert.tasks.progress;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.glencoesoftware.bioformats2raw.IProgressListener;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.LongAdder;
+
+// Records which series and resolutions of a conversion were fully written, in a sidecar file next to the output.
+// The ledger is rewritten (atomically) as each resolution and series finishes. A later attempt can then tell whether
+// an existing output is a complete, validated result of the same input and settings, and reuse it.
+public class ConversionLedger implements IProgressListener {
+
+    private static final ch.qos.logback.classic.Logger LOGGER =
+            (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(ConversionLedger.class);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final File output;
+    private final File ledgerFile;
+    private final ObjectNode ledger = mapper.createObjectNode();
+    private final ArrayNode resolutions;
+    private final ArrayNode completedSeries;
+    private final LongAdder completedChunks = new LongAdder();
+    private final LongAdder resolutionChunks = new LongAdder();
+    private int currentSeries = -1;
+    private int currentTileCount;
+
+    public ConversionLedger(File output, String fingerprint) {
+        this.output = output;
+        this.ledgerFile = getLedgerFile(output);
+        ledger.put("fingerprint", fingerprint);
+        ledger.put("complete", false);
+        resolutions = ledger.putArray("resolutions");
+        completedSeries = ledger.putArray("series");
+    }
+
+    public static File getLedgerFile(File output) {
+        return new File(output.getParentFile(), output.getName() + ".ledger.json");
+    }
+
+    private static File getTempFile(File ledgerFile) {
+        return new File(ledgerFile.getParentFile(), ledgerFile.getName() + ".tmp");
+    }
+
+    // Whether the output on disk is a finished conversion with the supplied fingerprint
+    public static boolean isComplete(File output, String fingerprint) {
+        File ledgerFile = getLedgerFile(output);
+        if (!ledgerFile.exists() || !output.exists()) return false;
+        if (output.isDirectory()) {
+            String[] contents = output.list();
+            if (contents == null || contents.length == 0) return false;
+        } else if (output.length() == 0) return false;
+        try {
+            JsonNode ledger = mapper.readTree(ledgerFile);
+            if (!ledger.path("complete").asBoolean(false)) return false;
+            if (!fingerprint.equals(ledger.path("fingerprint").asText())) return false;
+            long expected = ledger.path("expectedChunks").asLong(-1);
+            if (expected < 0 || ledger.path("completedChunks").asLong(-2) != expected) return false;
+            for (JsonNode resolution : ledger.path("resolutions")) {
+                if (resolution.path("chunks").asLong() < resolution.path("tiles").asLong()) return false;
+            }
+            return true;
+        } catch (IOException e) {
+            LOGGER.debug("Unable to read conversion ledger - " + e);
+            return false;
+        }
+    }
+
+    public static void delete(File output) {
+        File ledgerFile = getLedgerFile(output);
+        try {
+            Files.deleteIfExists(getTempFile(ledgerFile).toPath());
+            Files.deleteIfExists(ledgerFile.toPath());
+        } catch (IOException e) {
+            LOGGER.debug("Unable to remove conversion ledger - " + e);
+        }
+    }
+
+    @Override
+    public synchronized void notifyStart(int seriesCount, long chunkCount) {
+        ledger.put("seriesCount", seriesCount);
+        ledger.put("expectedChunks", chunkCount);
+        save();
+    }
+
+    @Override
+    public synchronized void notifySeriesStart(int series, int resolutionCount, int chunkCount) {
+        currentSeries = series;
+    }
+
+    @Override
+    public synchronized void notifySeriesEnd(int series) {
+        completedSeries.add(series);
+        save();
+    }
+
+    @Override
+    public synchronized void notifyResolutionStart(int resolution, int tileCount) {
+        currentTileCount = tileCount;
+        resolutionChunks.reset();
+    }
+
+    @Override
+    public void notifyChunkStart(int plane, int xx, int yy, int zz) {
+    }
+
+    @Override
+    public void notifyChunkEnd(int plane, int xx, int yy, int zz) {
+        completedChunks.increment();
+        resolutionChunks.increment();
+    }
+
+    @Override
+    public synchronized void notifyResolutionEnd(int resolution) {
+        ObjectNode record = resolutions.addObject();
+        record.put("series", currentSeries);
+        record.put("resolution", resolution);
+        record.put("tiles", currentTileCount);
+        record.put("chunks", resolutionChunks.sum());
+        save();
+    }
+
+    // Mark the conversion as finished. Only called once the converter has reported success.
+    public synchronized void complete() {
+        ledger.put("complete", true);
+        save();
+    }
+
+    private void save() {
+        ledger.put("completedChunks", completedChunks.sum());
+        File temp = getTempFile(ledgerFile);
+        try {
+            mapper.writeValue(temp, ledger);
+            Files.move(temp.toPath(), ledgerFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to update conversion ledger for %s - %s".formatted(output.getName(), e));
+        }
+    }
+}
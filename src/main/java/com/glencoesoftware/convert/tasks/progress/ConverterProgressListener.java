@@ -7,29 +7,36 @@
 package com.glencoesoftware.convert.tasks.progress;
 
 import com.glencoesoftware.bioformats2raw.IProgressListener;
-import javafx.animation.AnimationTimer;
-import javafx.application.Platform;
 import javafx.scene.control.Label;
 import javafx.scene.control.ProgressBar;
+import org.slf4j.LoggerFactory;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.concurrent.atomic.LongAdder;
 
-public class ConverterProgressListener implements IProgressListener {
+public class ConverterProgressListener implements IProgressListener, ProgressPublisher.Publishable {
 
+    private static final ch.qos.logback.classic.Logger LOGGER =
+            (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(ConverterProgressListener.class);
+
+    // Chunks complete on the converter's worker threads, so the count is kept in a LongAdder which doesn't contend
+    // on the write path. The shared ProgressPublisher samples it at a fixed low rate.
     private final ProgressBar progressBar;
     private final Label labelText;
     private final Label timerText;
-    private int totalSeries = -1;
-    private int currentSeries = 0;
-    private long totalChunks = -1;
-    private double completedChunks = 0;
-    private String elapsedTimeString = "";
-    private AnimationTimer timer;
+    private volatile int totalSeries = -1;
+    private volatile int currentSeries = 0;
+    private volatile long totalChunks = -1;
+    private final LongAdder completedChunks = new LongAdder();
+    private long startTime;
+
+    // Last values shown, only touched on the FX thread
+    private double shownProgress = -1;
+    private int shownSeries = -1;
+    private long shownSeconds = -1;
 
     /**
      * Create a new progress listener that displays a progress bar.
-     *
+     * Headless jobs pass null widgets, in which case progress is logged per series instead.
      */
     public ConverterProgressListener(ProgressBar bar, Label label, Label timer) {
         progressBar = bar;
@@ -37,35 +44,40 @@ public class ConverterProgressListener implements IProgressListener {
         timerText = timer;
     }
 
-    public void updateBar() {
-        Platform.runLater( () -> {
-            progressBar.setProgress(completedChunks / totalChunks);
+    // Called on the FX thread by the ProgressPublisher
+    public void publish() {
+        if (totalChunks > 0) {
+            double progress = Math.min(1.0, (double) completedChunks.sum() / totalChunks);
+            if (progress != shownProgress) {
+                shownProgress = progress;
+                progressBar.setProgress(progress);
+            }
+        }
+        int series = currentSeries;
+        if (series != shownSeries && totalSeries > 0) {
+            shownSeries = series;
             if (totalSeries < 100)
-                labelText.setText("Series %d of %d".formatted(currentSeries + 1, totalSeries));
+                labelText.setText("Series %d of %d".formatted(series + 1, totalSeries));
             else if (totalSeries < 1000)
-                labelText.setText("Series %d/%d".formatted(currentSeries + 1, totalSeries));
+                labelText.setText("Series %d/%d".formatted(series + 1, totalSeries));
             else
-                labelText.setText("%d/%d".formatted(currentSeries + 1, totalSeries));
-            timerText.setText(elapsedTimeString);
-        });
+                labelText.setText("%d/%d".formatted(series + 1, totalSeries));
+        }
+        long seconds = (System.currentTimeMillis() - startTime) / 1000;
+        if (seconds != shownSeconds) {
+            shownSeconds = seconds;
+            timerText.setText("%02d:%02d".formatted(seconds / 60, seconds % 60));
+        }
     }
 
     public void start() {
-        long startTime = System.currentTimeMillis();
-        SimpleDateFormat dateFormat = new SimpleDateFormat("mm:ss");
-        timer = new AnimationTimer() {
-            @Override
-            public void handle(long now) {
-                elapsedTimeString = dateFormat.format(new Date(System.currentTimeMillis() - startTime));
-                    updateBar();
-                }
-            };
-        timer.start();
+        if (progressBar == null) return;
+        startTime = System.currentTimeMillis();
+        ProgressPublisher.register(this);
     }
 
     public void stop() {
-        // Stop the animation timer if it was started
-        if (timer != null) timer.stop();
+        if (progressBar != null) ProgressPublisher.unregister(this);
     }
 
     @Override
@@ -78,12 +90,13 @@ public class ConverterProgressListener implements IProgressListener {
     @Override
     public void notifySeriesStart(int series, int resolutionCount, int chunkCount) {
         currentSeries = series;
+        if (progressBar == null) LOGGER.info("Series %d of %d".formatted(series + 1, totalSeries));
     }
 
     @Override
     public void notifySeriesEnd(int series) {
         if (series == totalSeries - 1) {
-            timer.stop();
+            stop();
         }
     }
 
@@ -100,7 +113,7 @@ public class ConverterProgressListener implements IProgressListener {
     @Override
     public void notifyChunkEnd(int plane, int xx, int yy, int zz) {
         // N.b. we don't trigger a bar refresh here to avoid excessive updates.
-        completedChunks += 1;
+        completedChunks.increment();
     }
 
     @Override
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert.tasks.progress;
+
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import org.apache.commons.io.FileUtils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Progress of copying a task's output to another drive, counted in bytes.
+// Headless tasks pass null widgets, in which case progress is logged every 10%.
+public class CopyProgressListener implements ProgressPublisher.Publishable {
+
+    private final ProgressBar progressBar;
+    private final Label labelText;
+    private final Label timerText;
+    private final ch.qos.logback.classic.Logger jobLogger;
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final LongAdder copiedBytes = new LongAdder();
+    private final AtomicLong lastLoggedDecile = new AtomicLong();
+    private long startTime;
+
+    // Last values shown, only touched on the FX thread
+    private double shownProgress = -1;
+    private long shownSeconds = -1;
+
+    public CopyProgressListener(ProgressBar bar, Label label, Label timer, ch.qos.logback.classic.Logger jobLogger) {
+        progressBar = bar;
+        labelText = label;
+        timerText = timer;
+        this.jobLogger = jobLogger;
+    }
+
+    public void publish() {
+        long total = totalBytes.get();
+        if (total > 0) {
+            double progress = Math.min(1.0, (double) copiedBytes.sum() / total);
+            if (progress != shownProgress) {
+                shownProgress = progress;
+                progressBar.setProgress(progress);
+                labelText.setText("Copied %s".formatted(FileUtils.byteCountToDisplaySize(copiedBytes.sum())));
+            }
+        }
+        long seconds = (System.currentTimeMillis() - startTime) / 1000;
+        if (seconds != shownSeconds) {
+            shownSeconds = seconds;
+            timerText.setText("%02d:%02d".formatted(seconds / 60, seconds % 60));
+        }
+    }
+
+    public void start() {
+        startTime = System.currentTimeMillis();
+        if (progressBar != null) ProgressPublisher.register(this);
+    }
+
+    public void stop() {
+        if (progressBar != null) ProgressPublisher.unregister(this);
+    }
+
+    public void addTotal(long bytes) {
+        totalBytes.addAndGet(bytes);
+    }
+
+    // Called from the copying threads
+    public void addCopied(long bytes) {
+        copiedBytes.add(bytes);
+        long total = totalBytes.get();
+        if (progressBar != null || total <= 0) return;
+        long decile = copiedBytes.sum() * 10 / total;
+        long logged = lastLoggedDecile.get();
+        if (decile > logged && lastLoggedDecile.compareAndSet(logged, decile))
+            jobLogger.info("Copied %d%% of %s".formatted(decile * 10, FileUtils.byteCountToDisplaySize(total)));
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert.tasks.progress;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.glencoesoftware.bioformats2raw.IProgressListener;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Records timing and throughput for a single converter run, for tuning tile sizes and worker counts.
+// Series and resolution events arrive from the converter's main thread, chunk events from its worker threads.
+public class MetricsRecorder implements IProgressListener {
+
+    private static final ch.qos.logback.classic.Logger LOGGER =
+            (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(MetricsRecorder.class);
+
+    // Chunk latencies are bucketed by powers of two in microseconds, the last bucket holds anything slower
+    private static final int histogramBuckets = 28;
+
+    private record SeriesTiming(int series, int resolutionCount, int chunkCount, long nanos) {}
+    private record ResolutionTiming(int series, int resolution, int tileCount, long chunks, long nanos) {}
+
+    private final String taskName;
+    private final Instant started = Instant.now();
+    private final long startNanos = System.nanoTime();
+    private long endNanos = -1;
+    private int totalSeries = -1;
+    private long totalChunks = -1;
+    private long outputBytes = -1;
+
+    private final List<SeriesTiming> seriesTimings = new ArrayList<>();
+    private final List<ResolutionTiming> resolutionTimings = new ArrayList<>();
+    private int currentSeries = -1;
+    private int currentResolutionCount;
+    private int currentSeriesChunks;
+    private long seriesStartNanos;
+    private int currentTileCount;
+    private long resolutionStartNanos;
+
+    private final LongAdder completedChunks = new LongAdder();
+    private final LongAdder resolutionChunks = new LongAdder();
+    private final LongAdder chunkNanos = new LongAdder();
+    private final AtomicLong maxChunkNanos = new AtomicLong();
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(histogramBuckets);
+    // Each worker thread processes one chunk at a time, so a per-thread start time is enough
+    private final ThreadLocal<long[]> chunkStart = ThreadLocal.withInitial(() -> new long[1]);
+
+    public MetricsRecorder(String taskName) {
+        this.taskName = taskName;
+    }
+
+    @Override
+    public void notifyStart(int seriesCount, long chunkCount) {
+        totalSeries = seriesCount;
+        totalChunks = chunkCount;
+    }
+
+    @Override
+    public synchronized void notifySeriesStart(int series, int resolutionCount, int chunkCount) {
+        currentSeries = series;
+        currentResolutionCount = resolutionCount;
+        currentSeriesChunks = chunkCount;
+        seriesStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void notifySeriesEnd(int series) {
+        seriesTimings.add(new SeriesTiming(series, currentResolutionCount, currentSeriesChunks,
+                System.nanoTime() - seriesStartNanos));
+    }
+
+    @Override
+    public synchronized void notifyResolutionStart(int resolution, int tileCount) {
+        currentTileCount = tileCount;
+        resolutionChunks.reset();
+        resolutionStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void notifyResolutionEnd(int resolution) {
+        resolutionTimings.add(new ResolutionTiming(currentSeries, resolution, currentTileCount,
+                resolutionChunks.sum(), System.nanoTime() - resolutionStartNanos));
+    }
+
+    @Override
+    public void notifyChunkStart(int plane, int xx, int yy, int zz) {
+        chunkStart.get()[0] = System.nanoTime();
+    }
+
+    @Override
+    public void notifyChunkEnd(int plane, int xx, int yy, int zz) {
+        long[] slot = chunkStart.get();
+        long start = slot[0];
+        slot[0] = 0;
+        completedChunks.increment();
+        resolutionChunks.increment();
+        if (start == 0) return;
+        long elapsed = System.nanoTime() - start;
+        chunkNanos.add(elapsed);
+        maxChunkNanos.accumulateAndGet(elapsed, Math::max);
+        long micros = Math.max(1, elapsed / 1000);
+        int bucket = Math.min(histogramBuckets - 1, 63 - Long.numberOfLeadingZeros(micros));
+        latencyHistogram.incrementAndGet(bucket);
+    }
+
+    // Mark the run as finished and measure what it produced
+    public synchronized void finish(File output) {
+        endNanos = System.nanoTime();
+        if (output != null && output.exists()) {
+            try {
+                outputBytes = output.isDirectory() ? FileUtils.sizeOfDirectory(output) : output.length();
+            } catch (IllegalArgumentException | UncheckedIOException e) {
+                LOGGER.debug("Unable to measure output size - " + e);
+            }
+        }
+        LOGGER.info("%s processed %d chunks in %.1fs (%.1f chunks/s)".formatted(
+                taskName, completedChunks.sum(), getWallSeconds(), perSecond(completedChunks.sum())));
+    }
+
+    // Size of the output measured by finish, -1 if unknown
+    public synchronized long getOutputBytes() {
+        return outputBytes;
+    }
+
+    private double getWallSeconds() {
+        long end = endNanos < 0 ? System.nanoTime() : endNanos;
+        return (end - startNanos) / 1e9;
+    }
+
+    private double perSecond(long count) {
+        double seconds = getWallSeconds();
+        return seconds > 0 ? count / seconds : 0;
+    }
+
+    public synchronized void writeTo(JsonGenerator generator) throws IOException {
+        long chunks = completedChunks.sum();
+        generator.writeStartObject();
+        generator.writeStringField("task", taskName);
+        generator.writeStringField("started", started.toString());
+        generator.writeNumberField("wallTimeMs", Math.round(getWallSeconds() * 1000));
+        generator.writeNumberField("seriesCount", totalSeries);
+        generator.writeNumberField("expectedChunks", totalChunks);
+        generator.writeNumberField("completedChunks", chunks);
+        generator.writeNumberField("chunksPerSecond", perSecond(chunks));
+        if (outputBytes >= 0) {
+            generator.writeNumberField("outputBytes", outputBytes);
+            generator.writeNumberField("bytesPerSecond", perSecond(outputBytes));
+        }
+
+        generator.writeObjectFieldStart("chunkLatency");
+        generator.writeNumberField("meanMicros", chunks > 0 ? chunkNanos.sum() / chunks / 1000 : 0);
+        generator.writeNumberField("maxMicros", maxChunkNanos.get() / 1000);
+        // Keys are the upper bound of each bucket in microseconds
+        generator.writeObjectFieldStart("histogram");
+        for (int i = 0; i < histogramBuckets; i++) {
+            long count = latencyHistogram.get(i);
+            if (count == 0) continue;
+            String bound = i == histogramBuckets - 1 ? "inf" : String.valueOf((1L << (i + 1)) - 1);
+            generator.writeNumberField(bound, count);
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+
+        generator.writeArrayFieldStart("series");
+        for (SeriesTiming timing : seriesTimings) {
+            generator.writeStartObject();
+            generator.writeNumberField("series", timing.series());
+            generator.writeNumberField("resolutions", timing.resolutionCount());
+            generator.writeNumberField("chunks", timing.chunkCount());
+            generator.writeNumberField("wallTimeMs", timing.nanos() / 1_000_000);
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("resolutions");
+        for (ResolutionTiming timing : resolutionTimings) {
+            generator.writeStartObject();
+            generator.writeNumberField("series", timing.series());
+            generator.writeNumberField("resolution", timing.resolution());
+            generator.writeNumberField("tiles", timing.tileCount());
+            generator.writeNumberField("chunks", timing.chunks());
+            generator.writeNumberField("wallTimeMs", timing.nanos() / 1_000_000);
+            generator.writeNumberField("chunksPerSecond",
+                    timing.nanos() > 0 ? timing.chunks() / (timing.nanos() / 1e9) : 0);
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+}
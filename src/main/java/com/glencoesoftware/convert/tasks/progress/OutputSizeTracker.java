@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert.tasks.progress;
+
+import com.glencoesoftware.bioformats2raw.IProgressListener;
+
+import java.nio.file.FileStore;
+import java.util.concurrent.atomic.LongAdder;
+
+// Keeps a running figure for how much of a task's output has been written, so the scheduler can tell how much of a
+// job's space reservation is still to come without measuring the output on disk.
+// While the converter runs, the expected output size is scaled by the fraction of chunks written. Once the task
+// finishes, the measured size replaces the estimate.
+public class OutputSizeTracker implements IProgressListener {
+
+    private final FileStore store;
+    private final long expectedBytes;
+    private final LongAdder completedChunks = new LongAdder();
+    private volatile long totalChunks = -1;
+    private volatile long measuredBytes = -1;
+
+    public OutputSizeTracker(FileStore store, long expectedBytes) {
+        this.store = store;
+        this.expectedBytes = Math.max(0, expectedBytes);
+    }
+
+    // Drive the output is written to, null if unknown
+    public FileStore getStore() {
+        return store;
+    }
+
+    public long getWrittenBytes() {
+        if (measuredBytes >= 0) return measuredBytes;
+        long total = totalChunks;
+        if (total <= 0) return 0;
+        return (long) (expectedBytes * Math.min(1.0, (double) completedChunks.sum() / total));
+    }
+
+    // Size of the finished output, ignored if it couldn't be measured
+    public void finish(long outputBytes) {
+        if (outputBytes >= 0) measuredBytes = outputBytes;
+    }
+
+    @Override
+    public void notifyStart(int seriesCount, long chunkCount) {
+        totalChunks = chunkCount;
+    }
+
+    @Override
+    public void notifySeriesStart(int series, int resolutionCount, int chunkCount) {
+    }
+
+    @Override
+    public void notifySeriesEnd(int series) {
+    }
+
+    @Override
+    public void notifyResolutionStart(int resolution, int tileCount) {
+    }
+
+    @Override
+    public void notifyChunkStart(int plane, int xx, int yy, int zz) {
+    }
+
+    @Override
+    public void notifyChunkEnd(int plane, int xx, int yy, int zz) {
+        completedChunks.increment();
+    }
+
+    @Override
+    public void notifyResolutionEnd(int resolution) {
+    }
+}
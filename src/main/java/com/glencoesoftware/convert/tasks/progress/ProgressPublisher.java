@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert.tasks.progress;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Drives progress display for every running task from a single FX timer, so the number of running jobs doesn't
+// change how much work lands on the FX thread. Updates are emitted at most maxUpdatesPerSecond times a second.
+public final class ProgressPublisher {
+
+    // Implementations are called on the FX thread and should skip any widgets whose values haven't changed
+    public interface Publishable {
+        void publish();
+    }
+
+    public static final int defaultUpdatesPerSecond = 5;
+
+    private static final Set<Publishable> active = ConcurrentHashMap.newKeySet();
+    private static volatile long intervalNanos = 1_000_000_000L / defaultUpdatesPerSecond;
+    private static AnimationTimer timer = null;
+    private static boolean timerRunning = false;
+
+    private ProgressPublisher() {}
+
+    public static void setMaxUpdatesPerSecond(int updatesPerSecond) {
+        intervalNanos = 1_000_000_000L / Math.max(1, updatesPerSecond);
+    }
+
+    public static void register(Publishable target) {
+        active.add(target);
+        Platform.runLater(ProgressPublisher::updateTimer);
+    }
+
+    // Stop updating the target. It gets one final publish so that the display shows the finished state.
+    public static void unregister(Publishable target) {
+        if (!active.remove(target)) return;
+        Platform.runLater(() -> {
+            target.publish();
+            updateTimer();
+        });
+    }
+
+    // Start or stop the shared timer depending on whether anything needs updating. FX thread only.
+    private static void updateTimer() {
+        if (timer == null) {
+            timer = new AnimationTimer() {
+                private long lastPublished = 0;
+
+                @Override
+                public void handle(long now) {
+                    if (now - lastPublished < intervalNanos) return;
+                    lastPublished = now;
+                    for (Publishable target : active) target.publish();
+                }
+            };
+        }
+        if (active.isEmpty() && timerRunning) {
+            timer.stop();
+            timerRunning = false;
+        } else if (!active.isEmpty() && !timerRunning) {
+            timer.start();
+            timerRunning = true;
+        }
+    }
+}
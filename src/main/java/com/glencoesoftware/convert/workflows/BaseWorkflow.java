@@ -6,18 +6,23 @@
  */
 package com.glencoesoftware.convert.workflows;
 
+import ch.qos.logback.classic.AsyncAppender;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
 import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.FileAppender;
 import com.fasterxml.jackson.core.*;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.glencoesoftware.convert.*;
 import com.glencoesoftware.convert.dialogs.LogDisplayDialog;
 import com.glencoesoftware.convert.tasks.BaseTask;
 import com.glencoesoftware.convert.tasks.Output;
+import com.glencoesoftware.convert.tasks.progress.ConversionLedger;
+import com.glencoesoftware.convert.tasks.progress.MetricsRecorder;
 import javafx.application.Platform;
 import javafx.beans.property.*;
 import javafx.collections.ObservableList;
@@ -28,14 +33,18 @@ import javafx.scene.Scene;
 import javafx.scene.paint.Color;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 import static com.glencoesoftware.convert.JobState.status.*;
 
@@ -44,19 +53,28 @@ public abstract class BaseWorkflow extends Service<Void> {
     // Keep a reference to the parent controller
     public PrimaryController controller;
 
+    // A workflow created without a controller runs headless (see HeadlessRunner) and must not touch JavaFX widgets.
+    // Headless runs supply their own scheduler before the job is used.
     public BaseWorkflow(PrimaryController parentController, File input) {
         controller = parentController;
-        // Use the single thread executor assigned to NGFF-Converter
-        setExecutor(App.executor);
+        firstInput = input;
+        if (isHeadless()) return;
+        scheduler = controller.scheduler;
+        // Hand work to the shared scheduler, which decides when this job can start
+        setExecutor(work -> scheduler.submit(this, work));
         status.addListener((i, o, n) -> {
-            // Update job/task display when jobs update
+            // Job table cells watch their own job's status, only the task list needs refreshing if it shows this job
             Platform.runLater(() -> {
-                controller.jobList.refresh();
-                controller.taskList.refresh();
+                if (controller.taskList.getItems() == tasks) controller.taskList.refresh();
                 controller.updateRunButton();
             });
         });
-        firstInput = input;
+        // The log window itself is only built if the user opens it
+        textAreaStream = new TextAreaStream();
+    }
+
+    public boolean isHeadless() {
+        return controller == null;
     }
 
     private final BooleanProperty selected = new SimpleBooleanProperty(false);
@@ -80,8 +98,6 @@ public abstract class BaseWorkflow extends Service<Void> {
         return StringUtils.capitalize(status.get().toString().toLowerCase());
     }
 
-    private final ch.qos.logback.classic.Logger rootLogger =
-            (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
 
     private final ch.qos.logback.classic.Logger LOGGER =
             (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(getClass());
@@ -98,8 +114,18 @@ public abstract class BaseWorkflow extends Service<Void> {
 
     public File firstInput;
 
+    // Identifies this job in the job journal
+    public String jobId = UUID.randomUUID().toString();
+
+    // Scheduler which runs this job
+    public JobScheduler scheduler;
+
     public File finalOutput = null;
 
+    // Files making up the input dataset, read once for each version of the input
+    private Set<String> datasetFiles = null;
+    private long datasetModified = 0;
+
     // Used by the joblist table to fetch file name. NOT unused!
     public String getInput() {
         return firstInput.getName();
@@ -118,13 +144,46 @@ public abstract class BaseWorkflow extends Service<Void> {
         return outputTask.getLogFile();
     }
 
+    // Metrics from each converter run during the current execution, written out alongside the log file
+    private final List<MetricsRecorder> metrics = new ArrayList<>();
+
+    public synchronized void addMetrics(MetricsRecorder recorder) {
+        metrics.add(recorder);
+    }
+
+    public File getMetricsFile() {
+        File logFile = getLogFile();
+        if (logFile == null) return null;
+        return new File(logFile.getParentFile(), StringUtils.removeEnd(logFile.getName(), ".log") + ".metrics.json");
+    }
+
+    private synchronized void writeMetrics() {
+        File target = getMetricsFile();
+        if (target == null || metrics.isEmpty()) return;
+        try (JsonGenerator generator = new JsonFactory().createGenerator(target, JsonEncoding.UTF8)) {
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartObject();
+            generator.writeStringField("workflow", getShortName());
+            generator.writeStringField("input", firstInput.getAbsolutePath());
+            generator.writeStringField("output", finalOutput.getAbsolutePath());
+            generator.writeArrayFieldStart("tasks");
+            for (MetricsRecorder recorder : metrics) recorder.writeTo(generator);
+            generator.writeEndArray();
+            generator.writeEndObject();
+            LOGGER.info("Saved conversion metrics to " + target.getAbsolutePath());
+        } catch (IOException e) {
+            LOGGER.error("Failed to save conversion metrics - " + e);
+        }
+    }
+
     private Stage consoleWindow;
     private TextAreaStream textAreaStream;
 
-    private FileAppender<ILoggingEvent> fileAppender;
+    private AsyncAppender fileAppender;
     private TextAreaAppender<ILoggingEvent> logBoxAppender;
     private LogDisplayDialog logControl;
 
+    // FX thread only
     private void createLogControl() throws IOException {
         FXMLLoader logLoader = new FXMLLoader();
         logLoader.setLocation(App.class.getResource("LogDisplay.fxml"));
@@ -134,18 +193,23 @@ public abstract class BaseWorkflow extends Service<Void> {
         consoleWindow = new Stage();
         consoleWindow.setScene(scene);
         consoleWindow.getIcons().add(App.appIcon);
-        textAreaStream = logControl.stream;
+        logControl.setTitle(getLogTitle());
+        logControl.attach(textAreaStream);
     }
 
-    {
-        try {
-            createLogControl();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    private String getLogTitle() {
+        return "%s (to %s)".formatted(firstInput.getName(), getShortName());
     }
 
     public void showLogBox() {
+        if (consoleWindow == null) {
+            try {
+                createLogControl();
+            } catch (IOException e) {
+                LOGGER.error("Failed to create log window - " + e);
+                return;
+            }
+        }
         consoleWindow.show();
         consoleWindow.toFront();
     }
@@ -161,6 +225,20 @@ public abstract class BaseWorkflow extends Service<Void> {
         return outputTask.getOverwrite();
     }
 
+    // Peak number of worker threads this job will use. Tasks run one after another, so this is the largest
+    // requirement of any single task.
+    public int getRequiredWorkers() {
+        int workers = 1;
+        for (BaseTask task : tasks) workers = Math.max(workers, task.getMaxWorkers());
+        return workers;
+    }
+
+    // Whether any task will take whatever workers the scheduler can spare when the job starts
+    public boolean adaptsWorkers() {
+        for (BaseTask task : tasks) if (task.adaptsWorkers()) return true;
+        return false;
+    }
+
     public File getWorkingDirectory() {
         Output outputTask = (Output) tasks.get(tasks.size() - 1);
         return outputTask.getWorkingDirectory();
@@ -187,14 +265,7 @@ public abstract class BaseWorkflow extends Service<Void> {
     }
 
     public void calculateIO() {
-        // Run through each task and determine the input/output file paths to feed into each-other.
-        File workingInput = firstInput;
-        File workingDir = getWorkingDirectory();
-        for (BaseTask task: tasks) {
-            task.setInput(workingInput);
-            task.calculateOutput(workingDir.getAbsolutePath());
-            workingInput = task.getOutput();
-        }
+        File workingInput = assignPaths();
 
         finalOutput = workingInput;
         if (finalOutput.exists() && !canOverwrite()) {
@@ -206,10 +277,28 @@ public abstract class BaseWorkflow extends Service<Void> {
         }
         LOGGER.info("Path calculation complete. Final output will be:");
         LOGGER.info(workingInput.getAbsolutePath());
-        logControl.setTitle("%s (to %s)".formatted(firstInput.getName(), getShortName()));
+        if (logControl != null) logControl.setTitle(getLogTitle());
         respondToUpdate();
     }
 
+    // Run through each task and determine the input/output file paths to feed into each-other.
+    // Returns the final output.
+    private File assignPaths() {
+        File workingInput = firstInput;
+        File workingDir = getWorkingDirectory();
+        File intermediateDir = ((Output) tasks.get(tasks.size() - 1)).getIntermediateDirectory();
+        for (int i = 0; i < tasks.size(); i++) {
+            BaseTask task = tasks.get(i);
+            task.setInput(workingInput);
+            // Outputs which are only read by a later task (rather than moved into place by Output) can use
+            // memory-backed scratch space.
+            if (i < tasks.size() - 2) task.calculateOutput(intermediateDir.getAbsolutePath());
+            else task.calculateOutput(workingDir.getAbsolutePath());
+            workingInput = task.getOutput();
+        }
+        return workingInput;
+    }
+
     public void resetJob() {
         reset();
         currentStage.set(-1);
@@ -220,6 +309,15 @@ public abstract class BaseWorkflow extends Service<Void> {
         respondToUpdate();
     }
 
+    public synchronized Set<String> getDatasetFiles() {
+        long modified = firstInput.lastModified();
+        if (datasetFiles == null || datasetModified != modified) {
+            datasetFiles = DatasetGrouper.getDatasetFiles(firstInput);
+            datasetModified = modified;
+        }
+        return datasetFiles;
+    }
+
     public void prepareGUI() {
         for (BaseTask task : tasks) task.prepareForDisplay();
     }
@@ -228,6 +326,7 @@ public abstract class BaseWorkflow extends Service<Void> {
         if (canRun()) {
             status.set(JobState.status.QUEUED);
             for (BaseTask task : tasks) task.status = JobState.status.QUEUED;
+            if (getJournal() != null) getJournal().jobQueued(this);
             start();
             controller.queuedJobs.setValue(controller.queuedJobs.getValue() + 1);
         } else {
@@ -239,6 +338,7 @@ public abstract class BaseWorkflow extends Service<Void> {
     public void cancelJob() {
         cancel();
         if (status.get() == JobState.status.QUEUED) {
+            scheduler.remove(this);
             // Task wasn't started, so we can reset immediately.
             resetJob();
             controller.queuedJobs.setValue(controller.queuedJobs.getValue() - 1);
@@ -252,25 +352,54 @@ public abstract class BaseWorkflow extends Service<Void> {
     }
 
     private void cleanupIntermediates() {
+        boolean failed = currentStage.get() != tasks.size();
+        // Nothing resumes from a finished job, so drop its ledgers, including one beside an output written in place
+        if (!failed) {
+            for (BaseTask task : tasks) if (task.getOutput() != null) ConversionLedger.delete(task.getOutput());
+        }
+        List<File> toDelete = new ArrayList<>();
         for (int i = 0; i < tasks.size() - 1; ++i) {
             BaseTask task = tasks.get(i);
-            File output = task.getOutput();
-            if (!Objects.equals(output, finalOutput) && !Objects.equals(output, firstInput)) {
-                if (!output.exists()){
-                    continue;
-                }
-                try {
-                    if (output.isDirectory()) {
-                        // This is silly but sometimes deleteDirectory alone fails on an incomplete zarr
-                        FileUtils.cleanDirectory(output);
-                        FileUtils.deleteDirectory(output);
-                    }
-                    else FileUtils.delete(output);
-                } catch (IOException ioe) {
-                    LOGGER.error("Failed to clean up intermediates - %s - Error was: %s".formatted(
-                            output.getAbsolutePath(), ioe));
-                }
+            // Anything in RAM-backed scratch is given up along with the job's reservation
+            if (failed && task.hasReusableOutput() && !Output.isMemoryScratch(task.getOutput())) {
+                // The next attempt can start from here
+                LOGGER.info("Keeping %s for reuse".formatted(task.getOutput().getName()));
+                continue;
             }
+            toDelete.add(task.getOutput());
+        }
+        // The RAM-backed space is only handed back once everything written there has been removed, so the next job
+        // can't be given space that's still in use
+        Runnable releaseScratch = ((Output) tasks.get(tasks.size() - 1)).detachMemoryScratch();
+        List<File> inScratch = toDelete.stream().filter(Output::isMemoryScratch).toList();
+        AtomicInteger scratchLeft = new AtomicInteger(inScratch.size());
+        if (inScratch.isEmpty()) releaseScratch.run();
+        for (File output : toDelete) {
+            if (!inScratch.contains(output)) deleteIntermediate(output, null);
+            else deleteIntermediate(output, () -> {
+                if (scratchLeft.decrementAndGet() == 0) releaseScratch.run();
+            });
+        }
+    }
+
+    // Remove a file produced by one task for consumption by the next. Never touches the job's input or final output.
+    // onRemoved (if supplied) runs once the file is gone, or won't be removed.
+    private void deleteIntermediate(File output, Runnable onRemoved) {
+        if (output == null || Objects.equals(output, finalOutput) || Objects.equals(output, firstInput)) {
+            if (onRemoved != null) onRemoved.run();
+            return;
+        }
+        ConversionLedger.delete(output);
+        if (!output.exists()) {
+            if (onRemoved != null) onRemoved.run();
+            return;
+        }
+        try {
+            // Removed in the background, the scheduler is told when the space is back
+            CleanupService.delete(output, scheduler, onRemoved);
+        } catch (IOException ioe) {
+            LOGGER.error("Failed to clean up intermediates - %s - Error was: %s".formatted(
+                    output.getAbsolutePath(), ioe));
         }
     }
 
@@ -281,9 +410,13 @@ public abstract class BaseWorkflow extends Service<Void> {
         LOGGER.info("Execution finished\n");
 
         // Print anything left in the console buffer.
-        textAreaStream.forceFlush();
-        if (logBoxAppender != null) rootLogger.detachAppender(logBoxAppender);
-        if (fileAppender != null) rootLogger.detachAppender(fileAppender);
+        if (textAreaStream != null) textAreaStream.forceFlush();
+        JobLogRouter.unbind();
+        // Drain queued events to the log file. A re-run opens a fresh appender.
+        if (fileAppender != null) {
+            fileAppender.stop();
+            fileAppender = null;
+        }
 
         // Evaluate whether we completed successfully
         if (currentStage.get() == tasks.size()) {
@@ -291,7 +424,6 @@ public abstract class BaseWorkflow extends Service<Void> {
             status.set(JobState.status.COMPLETED);
             // After a success we won't be running again, shut down the loggers.
             if (logBoxAppender != null) logBoxAppender.stop();
-            if (fileAppender != null) fileAppender.stop();
         } else {
             // Tasks were interrupted or errored out
             status.set(JobState.status.FAILED);
@@ -301,10 +433,18 @@ public abstract class BaseWorkflow extends Service<Void> {
                     case RUNNING, QUEUED -> task.status = JobState.status.FAILED;
                 }
         }
+        if (getJournal() != null) getJournal().jobFinished(this);
         currentStage.set(-1);
     }
 
-    private static FileAppender<ILoggingEvent> getFileAppender(File logFile) {
+    // Queue capacity for events waiting to be written to a job's log file
+    public static final int defaultLogQueueSize = 8192;
+    // Once fewer than this many queue slots remain, TRACE, DEBUG and INFO events are dropped. 0 never discards.
+    public static final int defaultLogDiscardThreshold = defaultLogQueueSize / 5;
+
+    // Job log files are written from a background thread so that logging from the converter's worker threads
+    // only costs a queue insert. The file is flushed as its buffer fills rather than on every event.
+    private static AsyncAppender getFileAppender(File logFile) {
         if (logFile == null) return null;
         LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
         PatternLayoutEncoder ple = new PatternLayoutEncoder();
@@ -314,9 +454,38 @@ public abstract class BaseWorkflow extends Service<Void> {
         FileAppender<ILoggingEvent> fileAppender = new FileAppender<>();
         fileAppender.setFile(logFile.getAbsolutePath());
         fileAppender.setEncoder(ple);
+        fileAppender.setImmediateFlush(false);
         fileAppender.setContext(lc);
         fileAppender.start();
-        return fileAppender;
+
+        int queueSize = Math.max(1, PrimaryController.userPreferences.getInt(
+                PrimaryController.prefName.LOG_QUEUE_SIZE.name(), defaultLogQueueSize));
+        int discardThreshold = Math.max(0, Math.min(queueSize, PrimaryController.userPreferences.getInt(
+                PrimaryController.prefName.LOG_DISCARD_THRESHOLD.name(), defaultLogDiscardThreshold)));
+        AsyncAppender asyncAppender = new AsyncAppender();
+        asyncAppender.setName("JobLog-" + logFile.getName());
+        asyncAppender.setContext(lc);
+        asyncAppender.setQueueSize(queueSize);
+        asyncAppender.setDiscardingThreshold(discardThreshold);
+        // Give the writer time to drain the queue when the job finishes
+        asyncAppender.setMaxFlushTime(10000);
+        asyncAppender.addAppender(fileAppender);
+        asyncAppender.start();
+        return asyncAppender;
+    }
+
+    private static TextAreaAppender<ILoggingEvent> getLogBoxAppender(TextAreaStream stream) {
+        LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
+        PatternLayoutEncoder ple = new PatternLayoutEncoder();
+        ple.setPattern("%date [%thread] %-5level %logger{36} - %msg%n");
+        ple.setContext(lc);
+        ple.start();
+        TextAreaAppender<ILoggingEvent> logBoxAppender = new TextAreaAppender<>();
+        logBoxAppender.setChildOutputStream(stream);
+        logBoxAppender.setEncoder(ple);
+        logBoxAppender.setContext(lc);
+        logBoxAppender.start();
+        return logBoxAppender;
     }
 
     // Copy setting values from supplied instance to this one
@@ -352,10 +521,33 @@ public abstract class BaseWorkflow extends Service<Void> {
 
     public void loadSettings(File targetFile) throws IOException {
         ObjectMapper mapper = new ObjectMapper();
-        JsonNode node = mapper.readTree(targetFile);
+        loadSettings(mapper.readTree(targetFile));
+    }
+
+    public void loadSettings(JsonNode node) {
         for (BaseTask task: tasks) task.importSettings(node);
     }
 
+    // The settings applied to each task, in the same layout as a settings file
+    public JsonNode getSettingsNode() {
+        ObjectMapper mapper = new ObjectMapper();
+        try (TokenBuffer buffer = new TokenBuffer(mapper, false)) {
+            buffer.writeStartObject();
+            buffer.writeFieldName("Version");
+            buffer.writeString(App.version);
+            for (BaseTask task: tasks) task.writeSettings(buffer);
+            buffer.writeEndObject();
+            return mapper.readTree(buffer.asParser());
+        } catch (IOException e) {
+            LOGGER.error("Failed to record settings - " + e);
+            return mapper.createObjectNode();
+        }
+    }
+
+    private JobJournal getJournal() {
+        return isHeadless() ? null : controller.journal;
+    }
+
     public boolean canRun() {
         return !isRunning() &&
                 (status.getValue() == JobState.status.READY || status.getValue() == JobState.status.WARNING);
@@ -366,70 +558,106 @@ public abstract class BaseWorkflow extends Service<Void> {
     protected Task<Void> createTask() {
         return new Task<>() {
             protected Void call() {
-                // Don't run if cancelled or already completed
-                if (isCancelled() || (status.get() == JobState.status.COMPLETED) ||
-                        (status.get() == JobState.status.FAILED)) {
-                    return null;
-                }
+                runTasks(this::isCancelled);
+                return null;
+            }
+        };
+    }
 
-                status.set(JobState.status.RUNNING);
-                currentStage.set(0);
-                Platform.runLater(() -> {
-                    // Display this job on the task tree
-                    controller.jobList.getSelectionModel().select(BaseWorkflow.this);
-                    controller.jobList.refresh();
-                });
-                controller.updateStatus("Working on %s".formatted(firstInput.getName()));
-                // Setup logging
-                fileAppender = getFileAppender(getLogFile());
-                logBoxAppender = logControl.getAppender();
-                rootLogger.addAppender(logBoxAppender);
-                if (fileAppender != null) rootLogger.addAppender(fileAppender);
-                LOGGER.info("Beginning conversion of " + firstInput.getName());
-                try {
-                    LOGGER.info("Preparing to run tasks");
-                    for (BaseTask task : tasks) {
-                        task.prepareToRun();
-                    }
-                    LOGGER.info("Will convert %s\nto %s".formatted(firstInput.getAbsolutePath(),
-                            finalOutput.getAbsolutePath()));
-                    LOGGER.info("Executing tasks");
-                    for (BaseTask task : tasks) {
-                        LOGGER.info("Running task " + task.getClass().getSimpleName());
-                        task.run();
-                        if (task.status != JobState.status.COMPLETED) break;
-                        currentStage.set(currentStage.get() + 1);
-                    }
-                    LOGGER.info("Tasks finished");
-                } finally {
-                    shutdown();
-                }
+    // Run each task in turn on the calling thread. Headless runs call this directly.
+    public void runTasks(BooleanSupplier cancelled) {
+        // Don't run if cancelled or already completed
+        if (cancelled.getAsBoolean() || (status.get() == JobState.status.COMPLETED) ||
+                (status.get() == JobState.status.FAILED)) {
+            return;
+        }
 
-                switch (status.get()) {
-                    case COMPLETED -> {
-                        LOGGER.info("Successfully created: " + finalOutput.getName() + "\n");
-                        controller.updateStatus(firstInput.getName() + " completed");
-                    }
-                    case FAILED -> {
-                        controller.updateStatus(firstInput.getName() + " failed");
-                        if (isCancelled()) {
-                            LOGGER.info("User aborted job: " + finalOutput.getName() + "\n");
-                        } else {
-                            LOGGER.info("Job failed, see logs \n");
-                        }
+        status.set(JobState.status.RUNNING);
+        currentStage.set(0);
+        if (getJournal() != null) getJournal().jobStarted(this);
+        if (!isHeadless()) {
+            Platform.runLater(() -> {
+                // Display this job on the task tree
+                controller.jobList.getSelectionModel().select(BaseWorkflow.this);
+            });
+            controller.updateStatus("Working on %s".formatted(firstInput.getName()));
+        }
+        // Setup logging. Only events from this job's threads reach these sinks.
+        List<Appender<ILoggingEvent>> logSinks = new ArrayList<>();
+        fileAppender = getFileAppender(getLogFile());
+        if (fileAppender != null) logSinks.add(fileAppender);
+        if (textAreaStream != null) {
+            if (logBoxAppender == null) logBoxAppender = getLogBoxAppender(textAreaStream);
+            logSinks.add(logBoxAppender);
+        }
+        JobLogRouter.bind(logSinks);
+        LOGGER.info("Beginning conversion of " + firstInput.getName());
+        synchronized (this) {
+            metrics.clear();
+        }
+        String fingerprint = ConversionIndex.isEnabled() ? ConversionIndex.getFingerprint(this) : null;
+        try {
+            if (fingerprint != null && ConversionIndex.getDefault().isUpToDate(this, fingerprint)) {
+                LOGGER.info("%s was already converted from this input with the same settings, skipping".formatted(
+                        finalOutput.getAbsolutePath()));
+                for (BaseTask task : tasks) task.status = JobState.status.COMPLETED;
+                currentStage.set(tasks.size());
+            } else {
+                LOGGER.info("Preparing to run tasks");
+                // Scratch space on the RAM-backed directory is only claimed once the job actually starts
+                if (((Output) tasks.get(tasks.size() - 1)).reserveMemoryScratch()) assignPaths();
+                for (BaseTask task : tasks) {
+                    task.clearOutputTracker();
+                    task.prepareToRun();
+                }
+                LOGGER.info("Will convert %s\nto %s".formatted(firstInput.getAbsolutePath(),
+                        finalOutput.getAbsolutePath()));
+                LOGGER.info("Executing tasks");
+                for (BaseTask task : tasks) {
+                    LOGGER.info("Running task " + task.getClass().getSimpleName());
+                    task.run();
+                    if (getJournal() != null) getJournal().taskFinished(this, task);
+                    if (task.status != JobState.status.COMPLETED) break;
+                    int stage = currentStage.get();
+                    if (stage > 0 && stage < tasks.size() - 1) {
+                        // The previous task's output has now been fully read, so remove it before the remaining tasks
+                        // run (e.g. while Output copies the result to another drive). Peak scratch use is still this
+                        // intermediate plus the output made from it, JobScheduler's space check keeps that in bounds.
+                        LOGGER.info("Removing intermediate " + tasks.get(stage - 1).getOutput().getName());
+                        deleteIntermediate(tasks.get(stage - 1).getOutput(), null);
                     }
-                    default -> LOGGER.info("Job status is invalid????: " + status);
+                    currentStage.set(stage + 1);
                 }
+                LOGGER.info("Tasks finished");
+            }
+        } finally {
+            writeMetrics();
+            shutdown();
+        }
 
-                String finalStatus = String.format("Completed conversion of %s files.", controller.completedJobs);
-                Platform.runLater(() -> {
-                    LOGGER.info(finalStatus);
-                    controller.jobFinished();
-                    controller.jobList.refresh();
-                });
-                return null;
+        switch (status.get()) {
+            case COMPLETED -> {
+                LOGGER.info("Successfully created: " + finalOutput.getName() + "\n");
+                if (fingerprint != null) ConversionIndex.getDefault().record(this, fingerprint);
+                if (!isHeadless()) controller.updateStatus(firstInput.getName() + " completed");
             }
-        };
+            case FAILED -> {
+                if (!isHeadless()) controller.updateStatus(firstInput.getName() + " failed");
+                if (cancelled.getAsBoolean()) {
+                    LOGGER.info("User aborted job: " + finalOutput.getName() + "\n");
+                } else {
+                    LOGGER.info("Job failed, see logs \n");
+                }
+            }
+            default -> LOGGER.info("Job status is invalid????: " + status);
+        }
+
+        if (isHeadless()) return;
+        String finalStatus = String.format("Completed conversion of %s files.", controller.completedJobs);
+        Platform.runLater(() -> {
+            LOGGER.info(finalStatus);
+            controller.jobFinished();
+        });
     }
 
 }
@@ -39,7 +39,8 @@ public class ConvertToNGFF extends BaseWorkflow {
 
     public FileChooser.ExtensionFilter[] getExtensionFilters() {
         return new FileChooser.ExtensionFilter[]{
-                new FileChooser.ExtensionFilter("NGFF Files", "*.zarr", "*.ngff")
+                new FileChooser.ExtensionFilter("NGFF Files", "*.zarr", "*.ngff"),
+                new FileChooser.ExtensionFilter("Single file NGFF", "*.zarr.zip")
         };
     }
 }
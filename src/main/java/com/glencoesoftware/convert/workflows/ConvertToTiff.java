@@ -11,6 +11,7 @@ import com.glencoesoftware.convert.tasks.BaseTask;
 import com.glencoesoftware.convert.tasks.CreateNGFF;
 import com.glencoesoftware.convert.tasks.CreateTiff;
 import com.glencoesoftware.convert.tasks.Output;
+import com.glencoesoftware.convert.tasks.ZarrArchive;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.stage.FileChooser;
@@ -23,7 +24,7 @@ public class ConvertToTiff extends BaseWorkflow{
         super(controller, input);
         ObservableList<BaseTask> tasks = FXCollections.observableArrayList();
         // Only need to convert to NGFF if the input isn't a zarr
-        if (input.getName().endsWith(".zarr")) tasks.addAll(new CreateTiff(this), new Output(this));
+        if (isNGFF(input)) tasks.addAll(new CreateTiff(this), new Output(this));
         else tasks.addAll(new CreateNGFF(this), new CreateTiff(this), new Output(this));
         this.setTasks(tasks);
     }
@@ -36,10 +37,14 @@ public class ConvertToTiff extends BaseWorkflow{
     public String getFullName() { return fullName; }
 
     public String getTechnicalName() {
-        if (firstInput.getName().endsWith(".zarr")) return "raw2ometiff";
+        if (isNGFF(firstInput)) return "raw2ometiff";
         return "bioformats2raw-raw2ometiff";
     }
 
+    private static boolean isNGFF(File input) {
+        return input.getName().endsWith(".zarr") || ZarrArchive.isArchive(input);
+    }
+
     public String getOutputExtension() { return ".ome.tiff"; }
 
     public FileChooser.ExtensionFilter[] getExtensionFilters() {
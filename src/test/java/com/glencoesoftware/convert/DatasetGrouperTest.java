@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DatasetGrouperTest {
+
+    @TempDir
+    File tempDir;
+
+    private File slide;
+    private File data;
+    private File index;
+    // Files which list other files as part of their dataset, anything else is a dataset of its own
+    private final Map<String, Set<String>> datasets = new HashMap<>();
+
+    @BeforeEach
+    public void createDataset() {
+        // A main file which lists its data files, which on their own only know about themselves
+        slide = new File(tempDir, "slide.mrxs");
+        data = new File(tempDir, "slide/Data0000.dat");
+        index = new File(tempDir, "slide/Index.dat");
+        datasets.put(slide.getAbsolutePath(),
+                Set.of(slide.getAbsolutePath(), data.getAbsolutePath(), index.getAbsolutePath()));
+    }
+
+    private Set<String> datasetOf(File file) {
+        return datasets.getOrDefault(file.getAbsolutePath(), Set.of(file.getAbsolutePath()));
+    }
+
+    private DatasetGrouper grouper() {
+        return new DatasetGrouper(this::datasetOf);
+    }
+
+    // Queued jobs, with the dataset files each would have cached
+    private Map<File, Set<String>> queued(File... files) {
+        Map<File, Set<String>> queued = new HashMap<>();
+        for (File file : files) queued.put(file, datasetOf(file));
+        return queued;
+    }
+
+    @Test
+    public void mainFileClaimsItsMembersInTheSameBatch() {
+        DatasetGrouper.Update update = grouper().add(List.of(data, slide, index));
+        assertEquals(List.of(slide), update.added());
+        assertTrue(update.removed().isEmpty());
+    }
+
+    @Test
+    public void mainFileInALaterBatchReplacesItsMembers() {
+        DatasetGrouper grouper = grouper();
+        assertEquals(List.of(data, index), grouper.add(List.of(data, index)).added());
+        DatasetGrouper.Update update = grouper.add(List.of(slide));
+        assertEquals(List.of(slide), update.added());
+        assertEquals(Set.of(data, index), Set.copyOf(update.removed()));
+    }
+
+    @Test
+    public void mainFileInALaterScanReplacesQueuedMembers() {
+        DatasetGrouper grouper = grouper();
+        grouper.addQueued(queued(data, index));
+        DatasetGrouper.Update update = grouper.add(List.of(slide));
+        assertEquals(List.of(slide), update.added());
+        assertEquals(Set.of(data, index), Set.copyOf(update.removed()));
+    }
+
+    @Test
+    public void membersOfAQueuedDatasetAreSkipped() {
+        DatasetGrouper grouper = grouper();
+        grouper.addQueued(queued(slide));
+        DatasetGrouper.Update update = grouper.add(List.of(data, index));
+        assertTrue(update.added().isEmpty());
+        assertTrue(update.removed().isEmpty());
+    }
+
+    @Test
+    public void queuedFilesAreNotAddedAgain() {
+        File other = new File(tempDir, "other.tif");
+        DatasetGrouper grouper = grouper();
+        grouper.addQueued(queued(other));
+        assertTrue(grouper.add(List.of(other)).added().isEmpty());
+    }
+
+    @Test
+    public void queuedInputsAreNotOpenedAgain() {
+        DatasetGrouper grouper = new DatasetGrouper(file -> {
+            if (file.equals(slide)) throw new AssertionError("Queued input was opened");
+            return datasetOf(file);
+        });
+        grouper.addQueued(queued(slide));
+        assertTrue(grouper.add(List.of(data)).added().isEmpty());
+    }
+
+    @Test
+    public void filesListingEachOtherKeepOne() {
+        // e.g. an OME-TIFF companion set, where every file lists the whole set
+        File first = new File(tempDir, "set_1.ome.tiff");
+        File second = new File(tempDir, "set_2.ome.tiff");
+        Set<String> members = Set.of(first.getAbsolutePath(), second.getAbsolutePath());
+        datasets.put(first.getAbsolutePath(), members);
+        datasets.put(second.getAbsolutePath(), members);
+        DatasetGrouper.Update update = grouper().add(List.of(second, first));
+        assertEquals(List.of(first), update.added());
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert;
+
+import com.glencoesoftware.convert.workflows.BaseWorkflow;
+import javafx.stage.FileChooser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JobSchedulerTest {
+
+    private static final long timeoutSeconds = 5;
+
+    // Only the parts of a workflow the scheduler looks at
+    private static class StubJob extends BaseWorkflow {
+        private final int workers;
+        private final boolean adaptive;
+
+        StubJob(String name, int workers) {
+            this(name, workers, false);
+        }
+
+        StubJob(String name, int workers, boolean adaptive) {
+            super(null, new File(name));
+            this.workers = workers;
+            this.adaptive = adaptive;
+        }
+
+        @Override
+        public int getRequiredWorkers() { return workers; }
+
+        @Override
+        public boolean adaptsWorkers() { return adaptive; }
+
+        public String getShortName() { return "Stub"; }
+
+        public String getFullName() { return "Stub job"; }
+
+        public String getTechnicalName() { return "stub"; }
+
+        public FileChooser.ExtensionFilter[] getExtensionFilters() { return new FileChooser.ExtensionFilter[0]; }
+
+        public String getOutputExtension() { return ".stub"; }
+    }
+
+    // Work which signals when it starts, then runs until it's told to finish
+    private record Submitted(CountDownLatch started, CountDownLatch finish) {
+        boolean hasStarted() {
+            return started.getCount() == 0;
+        }
+
+        boolean awaitStart() throws InterruptedException {
+            return started.await(timeoutSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @TempDir
+    File tempDir;
+
+    private JobScheduler scheduler;
+
+    @AfterEach
+    public void shutdown() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    private Submitted submit(BaseWorkflow job, Map<FileStore, Long> needed) {
+        Submitted submitted = new Submitted(new CountDownLatch(1), new CountDownLatch(1));
+        scheduler.setEstimate(job, needed);
+        scheduler.submit(job, () -> {
+            submitted.started().countDown();
+            try {
+                submitted.finish().await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        return submitted;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) throw new AssertionError("Timed out waiting for the scheduler");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void admitsUpToTheJobLimit() throws InterruptedException {
+        scheduler = new JobScheduler(2, 16);
+        Submitted first = submit(new StubJob("first.tif", 1), Map.of());
+        Submitted second = submit(new StubJob("second.tif", 1), Map.of());
+        Submitted third = submit(new StubJob("third.tif", 1), Map.of());
+        assertTrue(first.awaitStart());
+        assertTrue(second.awaitStart());
+        assertEquals(1, scheduler.queueSize());
+        assertEquals(2, scheduler.runningJobs());
+        assertFalse(third.hasStarted());
+
+        first.finish().countDown();
+        assertTrue(third.awaitStart());
+    }
+
+    @Test
+    public void admitsWithinTheWorkerBudget() throws InterruptedException {
+        scheduler = new JobScheduler(4, 4);
+        StubJob large = new StubJob("large.tif", 3);
+        StubJob small = new StubJob("small.tif", 2);
+        Submitted first = submit(large, Map.of());
+        Submitted second = submit(small, Map.of());
+        assertTrue(first.awaitStart());
+        assertEquals(3, scheduler.getReservedWorkers(large));
+        // 3 + 2 workers is over the budget of 4
+        assertEquals(1, scheduler.queueSize());
+        assertEquals(0, scheduler.getReservedWorkers(small));
+        assertFalse(second.hasStarted());
+
+        first.finish().countDown();
+        assertTrue(second.awaitStart());
+        assertEquals(2, scheduler.getReservedWorkers(small));
+        waitFor(() -> scheduler.getReservedWorkers(large) == 0);
+    }
+
+    @Test
+    public void loneAdaptiveJobGetsMoreThanOneWorker() throws InterruptedException {
+        // The default job limit matches the worker budget
+        scheduler = new JobScheduler(16, 16);
+        StubJob job = new StubJob("large.tif", 1, true);
+        Submitted submitted = submit(job, Map.of());
+        assertTrue(submitted.awaitStart());
+        assertTrue(scheduler.getReservedWorkers(job) > 1);
+    }
+
+    @Test
+    public void adaptiveJobsSplitTheFreeWorkers() throws InterruptedException {
+        scheduler = new JobScheduler(2, 16);
+        StubJob running = new StubJob("running.tif", 4);
+        Submitted first = submit(running, Map.of());
+        assertTrue(first.awaitStart());
+        StubJob adaptive = new StubJob("adaptive.tif", 1, true);
+        Submitted second = submit(adaptive, Map.of());
+        assertTrue(second.awaitStart());
+        // Never more than was free
+        int reserved = scheduler.getReservedWorkers(adaptive);
+        assertTrue(reserved >= 1 && reserved <= 12);
+    }
+
+    @Test
+    public void oversizedJobRunsOnItsOwn() throws InterruptedException {
+        scheduler = new JobScheduler(4, 4);
+        Submitted oversized = submit(new StubJob("oversized.tif", 8), Map.of());
+        assertTrue(oversized.awaitStart());
+        assertEquals(0, scheduler.queueSize());
+    }
+
+    @Test
+    public void jobShortOfSpaceHoldsTheQueue() throws InterruptedException, IOException {
+        scheduler = new JobScheduler(4, 16);
+        FileStore store = Files.getFileStore(tempDir.toPath());
+        StubJob huge = new StubJob("huge.tif", 1);
+        Submitted held = submit(huge, Map.of(store, Long.MAX_VALUE / 4));
+        // Would fit, but jobs start in the order they were queued
+        Submitted behind = submit(new StubJob("small.tif", 1), Map.of());
+        assertEquals(2, scheduler.queueSize());
+        assertEquals(0, scheduler.runningJobs());
+        assertFalse(held.hasStarted());
+        assertFalse(behind.hasStarted());
+
+        assertTrue(scheduler.remove(huge));
+        assertTrue(behind.awaitStart());
+        assertEquals(0, scheduler.queueSize());
+    }
+
+    @Test
+    public void removedJobsNeverStart() throws InterruptedException {
+        scheduler = new JobScheduler(1, 16);
+        Submitted running = submit(new StubJob("running.tif", 1), Map.of());
+        StubJob queued = new StubJob("queued.tif", 1);
+        Submitted removed = submit(queued, Map.of());
+        assertTrue(running.awaitStart());
+        assertTrue(scheduler.remove(queued));
+
+        running.finish().countDown();
+        waitFor(() -> scheduler.runningJobs() == 0);
+        assertFalse(removed.hasStarted());
+    }
+}
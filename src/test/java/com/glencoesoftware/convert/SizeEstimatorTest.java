@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SizeEstimatorTest {
+
+    private static final double tolerance = 1e-9;
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void pyramidFactorAddsAQuarterPerLevel() {
+        assertEquals(1.0, SizeEstimator.pyramidFactor(1), tolerance);
+        assertEquals(1.25, SizeEstimator.pyramidFactor(2), tolerance);
+        assertEquals(1.3125, SizeEstimator.pyramidFactor(3), tolerance);
+    }
+
+    @Test
+    public void unlimitedPyramidApproachesFourThirds() {
+        assertEquals(4.0 / 3, SizeEstimator.pyramidFactor(null), tolerance);
+        assertEquals(4.0 / 3, SizeEstimator.pyramidFactor(0), tolerance);
+        assertEquals(4.0 / 3, SizeEstimator.pyramidFactor(30), 1e-6);
+    }
+
+    @Test
+    public void unknownRatioIsOne() {
+        SizeEstimator estimator = new SizeEstimator(new File(tempDir, "history.json"));
+        assertEquals(1.0, estimator.getRatio("NGFF|blosc"), tolerance);
+    }
+
+    @Test
+    public void firstJobSetsTheRatio() {
+        SizeEstimator estimator = new SizeEstimator(new File(tempDir, "history.json"));
+        // Pyramid expansion is taken out, leaving the compression ratio
+        estimator.record("NGFF|blosc", 1000, 625, 1.25);
+        assertEquals(0.5, estimator.getRatio("NGFF|blosc"), tolerance);
+    }
+
+    @Test
+    public void laterJobsMoveTheRatioGradually() {
+        SizeEstimator estimator = new SizeEstimator(new File(tempDir, "history.json"));
+        estimator.record("TIFF|LZW", 100, 50, 1);
+        estimator.record("TIFF|LZW", 100, 100, 1);
+        assertEquals(0.5 + 0.3 * 0.5, estimator.getRatio("TIFF|LZW"), tolerance);
+        // Other kinds of conversion are unaffected
+        assertEquals(1.0, estimator.getRatio("TIFF|JPEG"), tolerance);
+    }
+
+    @Test
+    public void emptyResultsAreIgnored() {
+        SizeEstimator estimator = new SizeEstimator(new File(tempDir, "history.json"));
+        estimator.record("NGFF|zlib", 0, 100, 1);
+        estimator.record("NGFF|zlib", 100, -1, 1);
+        assertEquals(1.0, estimator.getRatio("NGFF|zlib"), tolerance);
+    }
+
+    @Test
+    public void ratiosAreKeptBetweenSessions() {
+        File history = new File(tempDir, "history.json");
+        new SizeEstimator(history).record("NGFF|blosc", 1000, 250, 1);
+        assertEquals(0.25, new SizeEstimator(history).getRatio("NGFF|blosc"), tolerance);
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert.tasks;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChunkSizeTunerTest {
+
+    private static final long maxChunkBytes = 4 * 1024 * 1024;
+
+    private static ChunkSizeTuner.SourceLayout layout(int tileWidth, int tileHeight, int sizeZ, int bytesPerPixel) {
+        return new ChunkSizeTuner.SourceLayout(tileWidth, tileHeight, 100000, 100000, sizeZ, bytesPerPixel, 1,
+                "test");
+    }
+
+    @Test
+    public void smallTilesAreGroupedUpToTheDefaultSize() {
+        ChunkSizeTuner.Chunking chunking = ChunkSizeTuner.tune(layout(512, 256, 1, 1));
+        assertEquals(1024, chunking.width());
+        assertEquals(1024, chunking.height());
+        assertEquals(1, chunking.depth());
+    }
+
+    @Test
+    public void tilesNotDividingTheDefaultSizeStayAligned() {
+        ChunkSizeTuner.Chunking chunking = ChunkSizeTuner.tune(layout(240, 240, 1, 1));
+        assertEquals(960, chunking.width());
+        assertEquals(960, chunking.height());
+    }
+
+    @Test
+    public void largeSourceTilesAreKept() {
+        ChunkSizeTuner.Chunking chunking = ChunkSizeTuner.tune(layout(2048, 2048, 1, 1));
+        assertEquals(2048, chunking.width());
+        assertEquals(2048, chunking.height());
+    }
+
+    @Test
+    public void untiledSourceUsesTheDefaultSize() {
+        // Whole rows, as read from a strip based TIFF
+        ChunkSizeTuner.Chunking chunking = ChunkSizeTuner.tune(
+                new ChunkSizeTuner.SourceLayout(50000, 1, 50000, 40000, 1, 1, 1, "test"));
+        assertEquals(1024, chunking.width());
+        assertEquals(1024, chunking.height());
+    }
+
+    @Test
+    public void unusableTileSizesFallBackToTheDefault() {
+        // Sizes which raw2ometiff can't use as a TIFF tile size fall back to the default
+        ChunkSizeTuner.Chunking chunking = ChunkSizeTuner.tune(layout(1000, 1000, 1, 1));
+        assertEquals(1024, chunking.width());
+        assertEquals(1024, chunking.height());
+    }
+
+    @Test
+    public void largePixelsShrinkChunksUnderTheLimit() {
+        ChunkSizeTuner.Chunking chunking = ChunkSizeTuner.tune(layout(512, 512, 1, 8));
+        assertTrue((long) chunking.width() * chunking.height() * 8 <= maxChunkBytes);
+        // Still whole source tiles
+        assertEquals(0, chunking.width() % 512);
+        assertEquals(0, chunking.height() % 512);
+    }
+
+    @Test
+    public void chunksStayMultiplesOfSixteen() {
+        for (int bytesPerPixel : new int[]{1, 2, 4, 8}) {
+            for (int tile : new int[]{16, 128, 240, 256, 512, 672, 1024, 2048, 4096}) {
+                ChunkSizeTuner.Chunking chunking = ChunkSizeTuner.tune(layout(tile, tile, 1, bytesPerPixel));
+                String description = "%d byte pixels, %d tiles".formatted(bytesPerPixel, tile);
+                assertEquals(0, chunking.width() % 16, description);
+                assertEquals(0, chunking.height() % 16, description);
+                assertTrue((long) chunking.width() * chunking.height() * bytesPerPixel <= maxChunkBytes,
+                        description);
+            }
+        }
+    }
+
+    @Test
+    public void thinChunksAreStackedInZ() {
+        ChunkSizeTuner.Chunking chunking = ChunkSizeTuner.tune(layout(672, 672, 10, 1));
+        assertEquals(672, chunking.width());
+        assertEquals(672, chunking.height());
+        assertEquals(2, chunking.depth());
+    }
+
+    @Test
+    public void singlePlanesAreNotStacked() {
+        assertEquals(1, ChunkSizeTuner.tune(layout(672, 672, 1, 1)).depth());
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2023 Glencoe Software, Inc. All rights reserved.
+ * This software is distributed under the terms described by the LICENSE.txt
+ * file you can find at the root of the distribution bundle.  If the file is
+ * missing please request a copy by contacting info@glencoesoftware.com
+ */
+package com.glencoesoftware.convert.tasks;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResourceTunerTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final long GB = 1024 * MB;
+
+    @Test
+    public void loneJobGetsEveryFreeWorker() {
+        assertEquals(32, ResourceTuner.share(32, 1, 8 * GB));
+        assertEquals(6, ResourceTuner.share(6, 1, 8 * GB));
+    }
+
+    @Test
+    public void freeWorkersAreSplitBetweenStartingJobs() {
+        assertEquals(8, ResourceTuner.share(32, 4, 8 * GB));
+        assertEquals(2, ResourceTuner.share(8, 3, 8 * GB));
+        // Every job gets at least one worker
+        assertEquals(1, ResourceTuner.share(2, 4, 8 * GB));
+        assertEquals(1, ResourceTuner.share(0, 1, 8 * GB));
+    }
+
+    @Test
+    public void shareIsCappedByTheHeap() {
+        // A quarter of the heap, at 3 default tiles for each worker
+        assertEquals(10, ResourceTuner.share(64, 1, GB));
+    }
+
+    @Test
+    public void unknownTileSizeHandsOutTheReservation() {
+        ResourceTuner.Allocation allocation = ResourceTuner.allocate(8, 16, 8 * GB, 0);
+        assertEquals(8, allocation.workers());
+        assertEquals(0, allocation.cachedTiles());
+        assertEquals(2 * GB, allocation.heapShare());
+    }
+
+    @Test
+    public void workersAndCacheShareTheHeap() {
+        ResourceTuner.Allocation allocation = ResourceTuner.allocate(8, 16, 8 * GB, 4 * MB);
+        assertEquals(8, allocation.workers());
+        // Half of the 4GB share for 8 of the 16 workers, less 3 tiles for each worker
+        assertEquals(488, allocation.cachedTiles());
+    }
+
+    @Test
+    public void largeTilesReduceWorkers() {
+        ResourceTuner.Allocation allocation = ResourceTuner.allocate(16, 16, GB, 64 * MB);
+        assertEquals(1, allocation.workers());
+        assertEquals(5, allocation.cachedTiles());
+    }
+
+    @Test
+    public void oversizedReservationGetsHalfTheHeap() {
+        assertEquals(4 * GB, ResourceTuner.allocate(32, 16, 8 * GB, 0).heapShare());
+    }
+
+    @Test
+    public void tileCacheIsCapped() {
+        assertEquals(4096, ResourceTuner.allocate(4, 4, 8 * GB, 1024).cachedTiles());
+    }
+
+    @Test
+    public void neverExceedsTheReservationOrHeapShare() {
+        for (int reserved = 1; reserved <= 64; reserved *= 2) {
+            for (int budget = 1; budget <= 16; budget *= 2) {
+                for (long tileBytes : new long[]{64 * 1024, MB, 4 * MB, 16 * MB}) {
+                    long maxMemory = 4 * GB;
+                    ResourceTuner.Allocation allocation =
+                            ResourceTuner.allocate(reserved, budget, maxMemory, tileBytes);
+                    String description = "%d reserved of %d, %d byte tiles".formatted(reserved, budget, tileBytes);
+                    assertTrue(allocation.workers() >= 1, description);
+                    assertTrue(allocation.workers() <= reserved, description);
+                    long used = (allocation.workers() * 3L + allocation.cachedTiles()) * tileBytes;
+                    assertTrue(used <= maxMemory / 2 / budget * Math.min(reserved, budget), description);
+                }
+            }
+        }
+    }
+}